@@ -8,15 +8,20 @@ import android.view.View.OnClickListener;
 import android.widget.TextView;
 
 import com.mauriciotogneri.ocrtest.ocr.CaptureActivity;
+import com.mauriciotogneri.ocrtest.ocr.OcrWarmUp;
 
 public class FormActivity extends AppCompatActivity
 {
+    private OcrWarmUp warmUp;
+
     @Override
     public void onCreate(Bundle icicle)
     {
         super.onCreate(icicle);
         setContentView(R.layout.form);
 
+        warmUp = new OcrWarmUp(this);
+
         findViewById(R.id.scan).setOnClickListener(new OnClickListener()
         {
             @Override
@@ -28,6 +33,24 @@ public class FormActivity extends AppCompatActivity
         });
     }
 
+    @Override
+    protected void onStart()
+    {
+        super.onStart();
+
+        // Get the OCR engines and the camera ready before the user taps Scan
+        warmUp.start();
+    }
+
+    @Override
+    protected void onStop()
+    {
+        // The capture activity has picked up whatever it needs by now
+        warmUp.cancel();
+
+        super.onStop();
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data)
     {
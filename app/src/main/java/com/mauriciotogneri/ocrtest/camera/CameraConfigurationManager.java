@@ -1,6 +1,7 @@
 package com.mauriciotogneri.ocrtest.camera;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
 import android.util.Log;
@@ -32,6 +33,7 @@ final class CameraConfigurationManager
     private final Context context;
     private Point screenResolution;
     private Point cameraResolution;
+    private int previewBufferSize;
 
     CameraConfigurationManager(Context context)
     {
@@ -61,6 +63,13 @@ final class CameraConfigurationManager
         Log.i(TAG, "Screen resolution: " + screenResolution);
         cameraResolution = findBestPreviewSizeValue(parameters, screenResolution);
         Log.i(TAG, "Camera resolution: " + cameraResolution);
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(parameters.getPreviewFormat());
+        if (bitsPerPixel <= 0)
+        {
+            // Unknown format; assume NV21, which every device has to support
+            bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
+        }
+        previewBufferSize = cameraResolution.x * cameraResolution.y * bitsPerPixel / 8;
     }
 
     void setDesiredCameraParameters(Camera camera)
@@ -103,6 +112,14 @@ final class CameraConfigurationManager
         return screenResolution;
     }
 
+    /**
+     * @return Size in bytes of a single preview frame at the camera resolution.
+     */
+    int getPreviewBufferSize()
+    {
+        return previewBufferSize;
+    }
+
     private static void initializeTorch(Camera.Parameters parameters)
     {
         doSetTorch(parameters, false);
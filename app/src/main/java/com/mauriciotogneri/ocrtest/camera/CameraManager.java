@@ -5,19 +5,41 @@ import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Handler;
+import android.util.Log;
 import android.view.SurfaceHolder;
 
+import com.mauriciotogneri.ocrtest.ocr.Configuration;
 import com.mauriciotogneri.ocrtest.ocr.PlanarYUVLuminanceSource;
 
 import java.io.IOException;
 
 public class CameraManager
 {
+    private static final String TAG = CameraManager.class.getSimpleName();
+
+    /**
+     * Held while the camera is being opened, so that a warm-up never holds the camera when a
+     * manager wants it.
+     */
+    private static final Object CAMERA_LOCK = new Object();
+
+    /**
+     * Preview configuration worked out by a warm-up or an earlier manager; it does not change while
+     * the process lives.
+     */
+    private static CameraConfigurationManager sharedConfigManager;
+
+    /**
+     * Preview buffers allocated by a warm-up, taken by the next manager.
+     */
+    private static PreviewBufferRing warmBufferRing;
+
     private final Context context;
     private final CameraConfigurationManager configManager;
     private final PreviewCallback previewCallback;
     private Camera camera;
     private AutoFocusManager autoFocusManager;
+    private PreviewBufferRing bufferRing;
     private Rect framingRect;
     private Rect framingRectInPreview;
     private boolean initialized;
@@ -26,32 +48,118 @@ public class CameraManager
     public CameraManager(Context context)
     {
         this.context = context;
-        this.configManager = new CameraConfigurationManager(context);
+
+        synchronized (CAMERA_LOCK)
+        {
+            this.configManager = (sharedConfigManager != null) ? sharedConfigManager : new CameraConfigurationManager(context);
+            this.bufferRing = warmBufferRing;
+            warmBufferRing = null;
+        }
+
         this.previewCallback = new PreviewCallback(configManager);
     }
 
-    public synchronized void openDriver(SurfaceHolder holder) throws IOException
+    /**
+     * Opens the camera briefly to work out the preview configuration, and allocates the preview
+     * buffers for it, so that the next manager starts with both. Blocks for as long as opening the
+     * camera takes, so it must not run on the main thread.
+     *
+     * @return True if the camera could be read.
+     */
+    public static boolean warmUp(Context context)
     {
-        Camera theCamera = camera;
-
-        if (theCamera == null)
+        synchronized (CAMERA_LOCK)
         {
-            theCamera = Camera.open();
+            if (sharedConfigManager != null && (warmBufferRing != null || Configuration.DEFAULT_PREVIEW_BUFFER_COUNT <= 0))
+            {
+                return true;
+            }
+
+            CameraConfigurationManager configManager = sharedConfigManager;
 
-            if (theCamera == null)
+            if (configManager == null)
             {
-                throw new IOException();
+                Camera camera = null;
+
+                try
+                {
+                    camera = Camera.open();
+
+                    if (camera == null)
+                    {
+                        return false;
+                    }
+
+                    configManager = new CameraConfigurationManager(context.getApplicationContext());
+                    configManager.initFromCameraParameters(camera);
+                }
+                catch (RuntimeException e)
+                {
+                    // The camera is in use, or there is none
+                    Log.w(TAG, "Could not read the camera while warming up", e);
+                    return false;
+                }
+                finally
+                {
+                    if (camera != null)
+                    {
+                        camera.release();
+                    }
+                }
+
+                sharedConfigManager = configManager;
+            }
+
+            if (Configuration.DEFAULT_PREVIEW_BUFFER_COUNT > 0)
+            {
+                warmBufferRing = new PreviewBufferRing(Configuration.DEFAULT_PREVIEW_BUFFER_COUNT, configManager.getPreviewBufferSize());
             }
 
-            camera = theCamera;
+            return true;
         }
+    }
 
-        camera.setPreviewDisplay(holder);
+    /**
+     * Opens the camera and sets it up for preview, if it is not open yet, without a display for
+     * the preview. Opening is slow, so this may be called on a background thread ahead of
+     * {@link #openDriver(SurfaceHolder)}; that thread must not have a looper, so that camera
+     * callbacks still arrive on the main thread.
+     */
+    public synchronized void open() throws IOException
+    {
+        Camera theCamera = camera;
+
+        if (theCamera != null)
+        {
+            return;
+        }
+
+        synchronized (CAMERA_LOCK)
+        {
+            theCamera = Camera.open();
+        }
+
+        if (theCamera == null)
+        {
+            throw new IOException();
+        }
+
+        camera = theCamera;
 
         if (!initialized)
         {
             initialized = true;
-            configManager.initFromCameraParameters(theCamera);
+
+            if (configManager.getCameraResolution() == null)
+            {
+                configManager.initFromCameraParameters(theCamera);
+
+                synchronized (CAMERA_LOCK)
+                {
+                    sharedConfigManager = configManager;
+                }
+            }
+
             Point screenResolution = configManager.getScreenResolution();
             framingRect = new Rect(0, 0, screenResolution.x, screenResolution.y);
             framingRectInPreview = null;
@@ -60,6 +168,12 @@ public class CameraManager
         configManager.setDesiredCameraParameters(theCamera);
     }
 
+    public synchronized void openDriver(SurfaceHolder holder) throws IOException
+    {
+        open();
+        camera.setPreviewDisplay(holder);
+    }
+
     public synchronized void closeDriver()
     {
         if (camera != null)
@@ -80,6 +194,7 @@ public class CameraManager
 
         if ((theCamera != null) && (!previewing))
         {
+            startBufferedPreviewCallbacks(theCamera);
             theCamera.startPreview();
             previewing = true;
             autoFocusManager = new AutoFocusManager(context, camera);
@@ -98,14 +213,75 @@ public class CameraManager
         {
             camera.stopPreview();
             previewCallback.setHandler(null, 0);
+            previewCallback.setFrameListener(null);
+            stopBufferedPreviewCallbacks(camera);
             previewing = false;
         }
     }
 
+    /**
+     * Streams preview frames into a ring of preallocated buffers instead of letting the driver
+     * allocate a new frame for every one-shot callback.
+     */
+    private void startBufferedPreviewCallbacks(final Camera theCamera)
+    {
+        if (Configuration.DEFAULT_PREVIEW_BUFFER_COUNT <= 0)
+        {
+            return;
+        }
+
+        if (bufferRing == null || bufferRing.getBufferSize() != configManager.getPreviewBufferSize())
+        {
+            bufferRing = new PreviewBufferRing(Configuration.DEFAULT_PREVIEW_BUFFER_COUNT, configManager.getPreviewBufferSize());
+        }
+
+        previewCallback.setBufferRing(bufferRing);
+        theCamera.setPreviewCallbackWithBuffer(previewCallback);
+        bufferRing.attach(new PreviewBufferRing.BufferSink()
+        {
+            @Override
+            public void queueBuffer(byte[] buffer)
+            {
+                theCamera.addCallbackBuffer(buffer);
+            }
+        });
+    }
+
+    private void stopBufferedPreviewCallbacks(Camera theCamera)
+    {
+        if (bufferRing != null)
+        {
+            theCamera.setPreviewCallbackWithBuffer(null);
+            bufferRing.detach();
+        }
+    }
+
+    /**
+     * Gives a preview frame back to the camera once the decoder no longer needs it. Frames that did
+     * not come from the buffer ring are left to the garbage collector.
+     *
+     * @param data A preview frame previously delivered to a decode handler.
+     */
+    public void releasePreviewBuffer(byte[] data)
+    {
+        PreviewBufferRing ring = bufferRing;
+
+        if (ring != null)
+        {
+            ring.recycle(data);
+        }
+    }
+
+    public PreviewBufferRing getPreviewBufferRing()
+    {
+        return bufferRing;
+    }
+
     /**
      * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
      * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-     * respectively.
+     * respectively. The receiver must pass the data to {@link #releasePreviewBuffer(byte[])} once it
+     * is done with it.
      *
      * @param handler The handler to send the message to.
      * @param message The what field of the message to be sent.
@@ -117,7 +293,30 @@ public class CameraManager
         if ((theCamera != null) && previewing)
         {
             previewCallback.setHandler(handler, message);
-            theCamera.setOneShotPreviewCallback(previewCallback);
+
+            if (bufferRing == null)
+            {
+                theCamera.setOneShotPreviewCallback(previewCallback);
+            }
+        }
+    }
+
+    /**
+     * Streams every preview frame to the given listener until it is replaced, cleared with null, or
+     * the preview is stopped. A pending {@link #requestOcrDecode(Handler, int)} takes precedence.
+     *
+     * @param listener The listener to receive frames, or null to stop streaming.
+     */
+    public synchronized void setPreviewFrameListener(PreviewFrameListener listener)
+    {
+        Camera theCamera = camera;
+
+        previewCallback.setFrameListener(listener);
+
+        if ((theCamera != null) && previewing && (bufferRing == null))
+        {
+            // Without the buffer ring, frames have to be requested from the driver continuously
+            theCamera.setPreviewCallback((listener != null) ? previewCallback : null);
         }
     }
 
@@ -150,6 +349,14 @@ public class CameraManager
         return framingRectInPreview;
     }
 
+    /**
+     * @return The size of the preview frames, or null if the camera has not been opened.
+     */
+    public synchronized Point getCameraResolution()
+    {
+        return initialized ? configManager.getCameraResolution() : null;
+    }
+
     /**
      * A factory method to build the appropriate LuminanceSource object based on the format
      * of the preview buffers, as described by Camera.Parameters.
@@ -0,0 +1,193 @@
+package com.mauriciotogneri.ocrtest.camera;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A fixed set of preallocated preview buffers that are cycled between the camera driver and the
+ * decoder, so that continuous scanning does not allocate a new frame for every preview callback.
+ * <p>
+ * Every buffer is always in exactly one of three places: queued at the sink (the camera, waiting to
+ * be filled), held by the application (delivered, not yet recycled), or parked in the ring while no
+ * sink is attached. Recycling a buffer twice, or one that the ring does not own, is ignored.
+ * <p>
+ * The ring does not depend on the camera API, so it can be driven by any frame producer that
+ * implements {@link BufferSink}.
+ */
+public final class PreviewBufferRing
+{
+    /**
+     * Destination for empty buffers, normally {@code Camera.addCallbackBuffer}.
+     */
+    public interface BufferSink
+    {
+        void queueBuffer(byte[] buffer);
+    }
+
+    private final int bufferSize;
+    private final Map<byte[], Boolean> buffers; // buffer -> held by the application
+    private final ArrayDeque<byte[]> parked;
+    private BufferSink sink;
+    private int queuedCount;
+    private int heldCount;
+    private long deliveredCount;
+    private long recycleCount;
+
+    public PreviewBufferRing(int capacity, int bufferSize)
+    {
+        if (capacity <= 0 || bufferSize <= 0)
+        {
+            throw new IllegalArgumentException("Capacity and buffer size must be positive");
+        }
+
+        this.bufferSize = bufferSize;
+        this.buffers = new IdentityHashMap<byte[], Boolean>(capacity);
+        this.parked = new ArrayDeque<byte[]>(capacity);
+
+        for (int i = 0; i < capacity; i++)
+        {
+            byte[] buffer = new byte[bufferSize];
+            buffers.put(buffer, Boolean.FALSE);
+            parked.add(buffer);
+        }
+    }
+
+    /**
+     * Hands every buffer that is not currently held by the application to the given sink.
+     */
+    public synchronized void attach(BufferSink sink)
+    {
+        this.sink = sink;
+
+        while (!parked.isEmpty())
+        {
+            queue(parked.poll());
+        }
+    }
+
+    /**
+     * Stops feeding the sink. Buffers queued at the sink are lost to it (the camera drops its queue
+     * when it is released), so they are parked again, ready for the next {@link #attach}. Buffers
+     * still held by the application are parked when they are recycled.
+     */
+    public synchronized void detach()
+    {
+        sink = null;
+        queuedCount = 0;
+        parked.clear();
+
+        for (Map.Entry<byte[], Boolean> entry : buffers.entrySet())
+        {
+            if (!entry.getValue())
+            {
+                parked.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Records that the sink has filled the given buffer and passed it to the application.
+     *
+     * @return True if the buffer belongs to this ring.
+     */
+    public synchronized boolean onFrameDelivered(byte[] buffer)
+    {
+        if (!owns(buffer) || buffers.get(buffer))
+        {
+            return false;
+        }
+
+        if (queuedCount > 0)
+        {
+            queuedCount--;
+        }
+        buffers.put(buffer, Boolean.TRUE);
+        heldCount++;
+        deliveredCount++;
+
+        return true;
+    }
+
+    /**
+     * Gives a delivered buffer back, so that it can be filled again.
+     *
+     * @return True if the buffer belongs to this ring.
+     */
+    public synchronized boolean recycle(byte[] buffer)
+    {
+        if (!owns(buffer) || !buffers.get(buffer))
+        {
+            return false;
+        }
+
+        buffers.put(buffer, Boolean.FALSE);
+        heldCount--;
+        recycleCount++;
+
+        if (sink != null)
+        {
+            queue(buffer);
+        }
+        else
+        {
+            parked.add(buffer);
+        }
+
+        return true;
+    }
+
+    public synchronized boolean owns(byte[] buffer)
+    {
+        return (buffer != null) && (buffer.length == bufferSize) && buffers.containsKey(buffer);
+    }
+
+    public int getCapacity()
+    {
+        return buffers.size();
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * @return Number of buffers waiting at the sink to be filled.
+     */
+    public synchronized int getQueuedCount()
+    {
+        return queuedCount;
+    }
+
+    /**
+     * @return Number of buffers delivered to the application and not yet recycled.
+     */
+    public synchronized int getHeldCount()
+    {
+        return heldCount;
+    }
+
+    public synchronized long getDeliveredCount()
+    {
+        return deliveredCount;
+    }
+
+    public synchronized long getRecycleCount()
+    {
+        return recycleCount;
+    }
+
+    private void queue(byte[] buffer)
+    {
+        queuedCount++;
+        sink.queueBuffer(buffer);
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "queued " + queuedCount + "/" + buffers.size() + " held " + heldCount
+                + " delivered " + deliveredCount + " recycled " + recycleCount;
+    }
+}
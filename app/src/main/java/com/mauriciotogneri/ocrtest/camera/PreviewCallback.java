@@ -9,8 +9,10 @@ import android.util.Log;
 public class PreviewCallback implements Camera.PreviewCallback
 {
     private final CameraConfigurationManager configManager;
-    private Handler previewHandler;
+    private volatile Handler previewHandler;
     private int previewMessage;
+    private volatile PreviewBufferRing bufferRing;
+    private volatile PreviewFrameListener frameListener;
 
     public PreviewCallback(CameraConfigurationManager configManager)
     {
@@ -23,11 +25,29 @@ public class PreviewCallback implements Camera.PreviewCallback
         this.previewMessage = previewMessage;
     }
 
+    void setFrameListener(PreviewFrameListener frameListener)
+    {
+        this.frameListener = frameListener;
+    }
+
+    void setBufferRing(PreviewBufferRing bufferRing)
+    {
+        this.bufferRing = bufferRing;
+    }
+
     @Override
     public void onPreviewFrame(byte[] data, Camera camera)
     {
         Point cameraResolution = configManager.getCameraResolution();
         Handler thePreviewHandler = previewHandler;
+        PreviewFrameListener theFrameListener = frameListener;
+        PreviewBufferRing theBufferRing = bufferRing;
+
+        if (theBufferRing != null)
+        {
+            theBufferRing.onFrameDelivered(data);
+        }
+
         if (cameraResolution != null && thePreviewHandler != null)
         {
             Message message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.x,
@@ -35,6 +55,15 @@ public class PreviewCallback implements Camera.PreviewCallback
             message.sendToTarget();
             previewHandler = null;
         }
+        else if (cameraResolution != null && theFrameListener != null)
+        {
+            theFrameListener.onPreviewFrame(data, cameraResolution.x, cameraResolution.y);
+        }
+        else if (theBufferRing != null)
+        {
+            // Nobody asked for this frame, so hand the buffer straight back to the camera
+            theBufferRing.recycle(data);
+        }
         else
         {
             Log.d(getClass().toString(), "Got preview callback, but no handler or resolution available");
@@ -0,0 +1,16 @@
+package com.mauriciotogneri.ocrtest.camera;
+
+/**
+ * Receives every preview frame while streaming. Called on the camera callback thread, so
+ * implementations must hand the frame off quickly.
+ */
+public interface PreviewFrameListener
+{
+    /**
+     * @param data   A preview frame, to be passed to {@link CameraManager#releasePreviewBuffer(byte[])}
+     *               once it is no longer needed.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    void onPreviewFrame(byte[] data, int width, int height);
+}
@@ -0,0 +1,315 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Local-threshold binarization of a greyscale crop, for the uneven lighting and glare of plastic
+ * cards, where a single global threshold loses part of the digits. The threshold of every pixel
+ * comes from the mean and standard deviation of a window around it, read in constant time from the
+ * integral image and squared integral image of the shared {@link FrameAnalysis}.
+ * <p>
+ * The output is written over the input, 0 for ink and 255 for background, so it can be handed to
+ * Leptonica as an 8 bpp image. Large crops are thresholded in row tiles on a small pool of threads.
+ * <p>
+ * Must only be called from one thread, the decode thread.
+ */
+final class AdaptiveBinarizer
+{
+    enum Method
+    {
+        /**
+         * T = m * (1 + k * (s / R - 1)), with R the dynamic range of the standard deviation.
+         */
+        SAUVOLA,
+
+        /**
+         * T = m - k * (1 - s / R) * (m - M), with M the darkest pixel and R the largest local
+         * standard deviation; copes better with low contrast.
+         */
+        WOLF
+    }
+
+    private static final double SAUVOLA_RANGE = 128.0;
+
+    private final Method method;
+    private final int radius;
+    private final float k;
+    private final int minParallelArea;
+    private final int threadCount;
+
+    private int[] integral;
+    private long[] squaredIntegral;
+    private byte[] luminance;
+    private int offset;
+    private int stride;
+    private final float[] tileMaxDeviation;
+    private ExecutorService executor;
+    private boolean isShutdown;
+
+    private long binarizedCount;
+    private long parallelCount;
+    private long totalNanos;
+
+    /**
+     * @param method          Thresholding formula.
+     * @param windowSize      Side of the window around each pixel, in pixels.
+     * @param k               Weight of the standard deviation in the threshold.
+     * @param minParallelArea Smallest crop, in pixels, that is split into tiles.
+     * @param threadCount     Number of threads used for large crops, including the calling one.
+     */
+    AdaptiveBinarizer(Method method, int windowSize, float k, int minParallelArea, int threadCount)
+    {
+        this.method = method;
+        this.radius = Math.max(1, windowSize / 2);
+        this.k = k;
+        this.minParallelArea = minParallelArea;
+        this.threadCount = Math.max(1, threadCount);
+        this.tileMaxDeviation = new float[this.threadCount];
+    }
+
+    /**
+     * Binarizes the analyzed image in place, and invalidates the analysis.
+     */
+    void binarize(FrameAnalysis analysis)
+    {
+        long start = System.nanoTime();
+        final int width = analysis.getWidth();
+        final int height = analysis.getHeight();
+
+        integral = analysis.getIntegral();
+        squaredIntegral = analysis.getSquaredIntegral();
+        luminance = analysis.getData();
+        offset = analysis.getOffset();
+        stride = analysis.getStride();
+
+        int tiles = (width * height >= minParallelArea) ? Math.min(threadCount, height) : 1;
+        float maxDeviation = 0f;
+
+        if (method == Method.WOLF)
+        {
+            // Wolf needs the largest local standard deviation of the whole image first
+            runTiles(tiles, height, new Tile()
+            {
+                @Override
+                public void run(int index, int top, int bottom)
+                {
+                    tileMaxDeviation[index] = maxDeviation(width, height, top, bottom);
+                }
+            });
+
+            for (int i = 0; i < tiles; i++)
+            {
+                maxDeviation = Math.max(maxDeviation, tileMaxDeviation[i]);
+            }
+        }
+
+        final double range = (method == Method.WOLF) ? Math.max(1f, maxDeviation) : SAUVOLA_RANGE;
+        final int darkest = analysis.getMinimum();
+
+        runTiles(tiles, height, new Tile()
+        {
+            @Override
+            public void run(int index, int top, int bottom)
+            {
+                threshold(width, height, top, bottom, range, darkest);
+            }
+        });
+
+        analysis.invalidate();
+        luminance = null;
+
+        synchronized (this)
+        {
+            binarizedCount++;
+            parallelCount += (tiles > 1) ? 1 : 0;
+            totalNanos += System.nanoTime() - start;
+        }
+    }
+
+    private float maxDeviation(int width, int height, int top, int bottom)
+    {
+        double max = 0;
+        int integralStride = width + 1;
+
+        for (int y = top; y < bottom; y++)
+        {
+            int y0 = Math.max(0, y - radius);
+            int y1 = Math.min(height, y + radius + 1);
+
+            for (int x = 0; x < width; x++)
+            {
+                int x0 = Math.max(0, x - radius);
+                int x1 = Math.min(width, x + radius + 1);
+                int count = (x1 - x0) * (y1 - y0);
+
+                long sum = integral[y1 * integralStride + x1] - integral[y0 * integralStride + x1]
+                        - integral[y1 * integralStride + x0] + integral[y0 * integralStride + x0];
+                long squaredSum = squaredIntegral[y1 * integralStride + x1] - squaredIntegral[y0 * integralStride + x1]
+                        - squaredIntegral[y1 * integralStride + x0] + squaredIntegral[y0 * integralStride + x0];
+
+                double mean = (double) sum / count;
+                double variance = (double) squaredSum / count - mean * mean;
+                max = Math.max(max, variance);
+            }
+        }
+
+        return (float) Math.sqrt(max);
+    }
+
+    private void threshold(int width, int height, int top, int bottom, double range, int darkest)
+    {
+        int integralStride = width + 1;
+
+        for (int y = top; y < bottom; y++)
+        {
+            int y0 = Math.max(0, y - radius);
+            int y1 = Math.min(height, y + radius + 1);
+
+            for (int x = 0; x < width; x++)
+            {
+                int x0 = Math.max(0, x - radius);
+                int x1 = Math.min(width, x + radius + 1);
+                int count = (x1 - x0) * (y1 - y0);
+
+                long sum = integral[y1 * integralStride + x1] - integral[y0 * integralStride + x1]
+                        - integral[y1 * integralStride + x0] + integral[y0 * integralStride + x0];
+                long squaredSum = squaredIntegral[y1 * integralStride + x1] - squaredIntegral[y0 * integralStride + x1]
+                        - squaredIntegral[y1 * integralStride + x0] + squaredIntegral[y0 * integralStride + x0];
+
+                double mean = (double) sum / count;
+                double deviation = Math.sqrt(Math.max(0.0, (double) squaredSum / count - mean * mean));
+                double threshold;
+
+                if (method == Method.WOLF)
+                {
+                    threshold = mean - k * (1.0 - deviation / range) * (mean - darkest);
+                }
+                else
+                {
+                    threshold = mean * (1.0 + k * (deviation / range - 1.0));
+                }
+
+                int index = offset + y * stride + x;
+                luminance[index] = ((luminance[index] & 0xff) <= threshold) ? 0 : (byte) 255;
+            }
+        }
+    }
+
+    private interface Tile
+    {
+        void run(int index, int top, int bottom);
+    }
+
+    /**
+     * Runs the given work over row tiles; the calling thread takes the last tile and then waits for
+     * the others.
+     */
+    private void runTiles(int tiles, int height, final Tile tile)
+    {
+        if (tiles <= 1)
+        {
+            tile.run(0, 0, height);
+            return;
+        }
+
+        final CountDownLatch done = new CountDownLatch(tiles - 1);
+        int rowsPerTile = (height + tiles - 1) / tiles;
+
+        for (int i = 0; i < tiles - 1; i++)
+        {
+            final int index = i;
+            final int top = i * rowsPerTile;
+            final int bottom = Math.min(height, top + rowsPerTile);
+            Runnable work = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        tile.run(index, top, bottom);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            };
+
+            try
+            {
+                getExecutor().execute(work);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // Shutting down: do the work here
+                work.run();
+            }
+        }
+
+        tile.run(tiles - 1, Math.min(height, (tiles - 1) * rowsPerTile), height);
+
+        try
+        {
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (isShutdown)
+        {
+            throw new RejectedExecutionException("Binarizer has been shut down");
+        }
+
+        if (executor == null)
+        {
+            executor = Executors.newFixedThreadPool(threadCount - 1, new ThreadFactory()
+            {
+                private int count;
+
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "Binarizer-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    /**
+     * Stops the tile threads, if any were started.
+     */
+    synchronized void shutdown()
+    {
+        isShutdown = true;
+
+        if (executor != null)
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format(Locale.US, "%s binarized %d, %d in parallel, %.3f ms avg",
+                             method.name().toLowerCase(Locale.US),
+                             binarizedCount,
+                             parallelCount,
+                             (binarizedCount > 0) ? totalNanos / 1e6 / binarizedCount : 0.0);
+    }
+}
@@ -0,0 +1,520 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import java.util.Locale;
+
+/**
+ * Fuses the digit line of the last few frames into one cleaner, optionally upscaled, image. At the
+ * preview resolution the digit strokes are only a few pixels high and noisy; averaging several
+ * registered frames raises the signal to noise ratio, and their sub-pixel offsets add detail when
+ * upscaling, without a higher camera resolution.
+ * <p>
+ * Each line crop is kept in a short ring. The newest crop is the reference; every older crop that
+ * is recent enough is registered against it by phase correlation over a central window, with a
+ * sub-pixel peak. Crops whose correlation peak is too weak, e.g. because the camera moved to
+ * something else, are left out. The fused pixel is the mean or the median of the registered
+ * samples.
+ * <p>
+ * Uses preallocated arrays and must only be called from one thread, the decode thread.
+ */
+final class BandFusion
+{
+    enum Method
+    {
+        MEAN,
+        MEDIAN
+    }
+
+    /**
+     * Largest registration window; powers of two, for the FFT.
+     */
+    private static final int MAX_WINDOW_WIDTH = 256;
+    private static final int MAX_WINDOW_HEIGHT = 64;
+    private static final int MIN_WINDOW_SIZE = 8;
+
+    /**
+     * Weakest normalized correlation peak accepted as a match, and the same as a multiple of the
+     * noise floor of unrelated crops, which is about one over the square root of the window area.
+     * Small windows need the latter, since their floor is higher.
+     */
+    private static final float MIN_PEAK = 0.08f;
+    private static final float MIN_PEAK_OVER_NOISE = 8f;
+
+    private final Method method;
+    private final int scale;
+    private final long maxAgeNanos;
+
+    private final byte[][] ringPixels;
+    private final int[] ringWidths;
+    private final int[] ringHeights;
+    private final long[] ringTimes;
+    private int ringStart;
+    private int ringCount;
+
+    private final int[] used;
+    private final float[] offsetX;
+    private final float[] offsetY;
+    private final int[] samples;
+    private final float[] referenceRe;
+    private final float[] referenceIm;
+    private final float[] re;
+    private final float[] im;
+
+    private int fusedWidth;
+    private int fusedHeight;
+
+    private long fusedCount;
+    private long framesUsed;
+    private long totalNanos;
+
+    /**
+     * @param frames       Number of frames fused, including the newest.
+     * @param method       How registered samples are combined.
+     * @param scale        1, or 2 to upscale the fused image.
+     * @param maxAgeMillis Oldest frame, relative to the newest, that is still fused.
+     */
+    BandFusion(int frames, Method method, int scale, long maxAgeMillis)
+    {
+        int capacity = Math.max(1, frames);
+
+        this.method = method;
+        this.scale = Math.max(1, Math.min(2, scale));
+        this.maxAgeNanos = maxAgeMillis * 1000000L;
+        this.ringPixels = new byte[capacity][0];
+        this.ringWidths = new int[capacity];
+        this.ringHeights = new int[capacity];
+        this.ringTimes = new long[capacity];
+        this.used = new int[capacity];
+        this.offsetX = new float[capacity];
+        this.offsetY = new float[capacity];
+        this.samples = new int[capacity];
+
+        int windowArea = MAX_WINDOW_WIDTH * MAX_WINDOW_HEIGHT;
+        this.referenceRe = new float[windowArea];
+        this.referenceIm = new float[windowArea];
+        this.re = new float[windowArea];
+        this.im = new float[windowArea];
+    }
+
+    /**
+     * Forgets the stored frames, e.g. when the digit line was lost.
+     */
+    void reset()
+    {
+        ringStart = 0;
+        ringCount = 0;
+    }
+
+    /**
+     * Stores the line crop of a new frame and fuses it with the stored ones.
+     *
+     * @param output A buffer to reuse if it is large enough, or null.
+     * @return The fused image, of {@link #getFusedWidth()} x {@link #getFusedHeight()} pixels, or
+     * null if there is nothing to fuse it with and no upscaling to do.
+     */
+    byte[] fuse(byte[] luminance, int width, int height, byte[] output)
+    {
+        long start = System.nanoTime();
+        int reference = store(luminance, width, height, start);
+        int count = 0;
+
+        used[count] = reference;
+        offsetX[count] = 0f;
+        offsetY[count] = 0f;
+        count++;
+
+        for (int i = 0; i < ringCount - 1; i++)
+        {
+            int slot = (ringStart + i) % ringPixels.length;
+
+            if (start - ringTimes[slot] > maxAgeNanos)
+            {
+                continue;
+            }
+
+            if (register(reference, slot, count))
+            {
+                used[count++] = slot;
+            }
+        }
+
+        if (count == 1 && scale == 1)
+        {
+            return null;
+        }
+
+        fusedWidth = width * scale;
+        fusedHeight = height * scale;
+        byte[] result = output;
+
+        if (result == null || result.length < fusedWidth * fusedHeight)
+        {
+            result = new byte[fusedWidth * fusedHeight];
+        }
+
+        combine(count, width, height, result);
+
+        synchronized (this)
+        {
+            fusedCount++;
+            framesUsed += count;
+            totalNanos += System.nanoTime() - start;
+        }
+
+        return result;
+    }
+
+    int getFusedWidth()
+    {
+        return fusedWidth;
+    }
+
+    int getFusedHeight()
+    {
+        return fusedHeight;
+    }
+
+    /**
+     * Copies the crop into the ring, replacing the oldest one if it is full.
+     *
+     * @return The slot of the crop.
+     */
+    private int store(byte[] luminance, int width, int height, long time)
+    {
+        int slot;
+
+        if (ringCount == ringPixels.length)
+        {
+            slot = ringStart;
+            ringStart = (ringStart + 1) % ringPixels.length;
+        }
+        else
+        {
+            slot = (ringStart + ringCount) % ringPixels.length;
+            ringCount++;
+        }
+
+        int area = width * height;
+
+        if (ringPixels[slot].length < area)
+        {
+            ringPixels[slot] = new byte[area];
+        }
+
+        System.arraycopy(luminance, 0, ringPixels[slot], 0, area);
+        ringWidths[slot] = width;
+        ringHeights[slot] = height;
+        ringTimes[slot] = time;
+
+        return slot;
+    }
+
+    /**
+     * Finds the translation of the given crop relative to the reference, by phase correlation of
+     * central windows, and records it in {@link #offsetX} and {@link #offsetY} at the given index.
+     *
+     * @return False if the crops do not match well enough.
+     */
+    private boolean register(int reference, int slot, int index)
+    {
+        int windowWidth = largestPowerOfTwo(Math.min(Math.min(ringWidths[reference], ringWidths[slot]), MAX_WINDOW_WIDTH));
+        int windowHeight = largestPowerOfTwo(Math.min(Math.min(ringHeights[reference], ringHeights[slot]), MAX_WINDOW_HEIGHT));
+
+        if (windowWidth < MIN_WINDOW_SIZE || windowHeight < MIN_WINDOW_SIZE)
+        {
+            return false;
+        }
+
+        int referenceLeft = (ringWidths[reference] - windowWidth) / 2;
+        int referenceTop = (ringHeights[reference] - windowHeight) / 2;
+        int left = (ringWidths[slot] - windowWidth) / 2;
+        int top = (ringHeights[slot] - windowHeight) / 2;
+
+        loadWindow(reference, referenceLeft, referenceTop, windowWidth, windowHeight, referenceRe, referenceIm);
+        fft2d(referenceRe, referenceIm, windowWidth, windowHeight, false);
+        loadWindow(slot, left, top, windowWidth, windowHeight, re, im);
+        fft2d(re, im, windowWidth, windowHeight, false);
+
+        // Normalized cross-power spectrum of the crop against the reference
+        int area = windowWidth * windowHeight;
+
+        for (int i = 0; i < area; i++)
+        {
+            float productRe = re[i] * referenceRe[i] + im[i] * referenceIm[i];
+            float productIm = im[i] * referenceRe[i] - re[i] * referenceIm[i];
+            float magnitude = (float) Math.sqrt(productRe * productRe + productIm * productIm) + 1e-6f;
+            re[i] = productRe / magnitude;
+            im[i] = productIm / magnitude;
+        }
+
+        fft2d(re, im, windowWidth, windowHeight, true);
+
+        int peak = 0;
+
+        for (int i = 1; i < area; i++)
+        {
+            if (re[i] > re[peak])
+            {
+                peak = i;
+            }
+        }
+
+        if (re[peak] / area < Math.max(MIN_PEAK, MIN_PEAK_OVER_NOISE / (float) Math.sqrt(area)))
+        {
+            return false;
+        }
+
+        int peakX = peak % windowWidth;
+        int peakY = peak / windowWidth;
+        float subX = subPixel(re[peakY * windowWidth + (peakX + windowWidth - 1) % windowWidth],
+                              re[peak],
+                              re[peakY * windowWidth + (peakX + 1) % windowWidth]);
+        float subY = subPixel(re[((peakY + windowHeight - 1) % windowHeight) * windowWidth + peakX],
+                              re[peak],
+                              re[((peakY + 1) % windowHeight) * windowWidth + peakX]);
+
+        float shiftX = ((peakX > windowWidth / 2) ? peakX - windowWidth : peakX) + subX;
+        float shiftY = ((peakY > windowHeight / 2) ? peakY - windowHeight : peakY) + subY;
+
+        // Reference pixel (x, y) is found at (x + offset) in the crop
+        offsetX[index] = left - referenceLeft + shiftX;
+        offsetY[index] = top - referenceTop + shiftY;
+        return true;
+    }
+
+    /**
+     * Copies a window of a stored crop, with its mean removed and a Hann taper, as complex input.
+     */
+    private void loadWindow(int slot, int left, int top, int windowWidth, int windowHeight, float[] targetRe, float[] targetIm)
+    {
+        byte[] pixels = ringPixels[slot];
+        int width = ringWidths[slot];
+        long sum = 0;
+
+        for (int y = 0; y < windowHeight; y++)
+        {
+            int row = (top + y) * width + left;
+
+            for (int x = 0; x < windowWidth; x++)
+            {
+                sum += pixels[row + x] & 0xff;
+            }
+        }
+
+        float mean = (float) sum / (windowWidth * windowHeight);
+
+        for (int y = 0; y < windowHeight; y++)
+        {
+            int row = (top + y) * width + left;
+            float taperY = hann(y, windowHeight);
+
+            for (int x = 0; x < windowWidth; x++)
+            {
+                int index = y * windowWidth + x;
+                targetRe[index] = ((pixels[row + x] & 0xff) - mean) * taperY * hann(x, windowWidth);
+                targetIm[index] = 0f;
+            }
+        }
+    }
+
+    private void combine(int count, int width, int height, byte[] result)
+    {
+        for (int y = 0; y < fusedHeight; y++)
+        {
+            float sourceY = (y + 0.5f) / scale - 0.5f;
+
+            for (int x = 0; x < fusedWidth; x++)
+            {
+                float sourceX = (x + 0.5f) / scale - 0.5f;
+                int sampleCount = 0;
+
+                for (int i = 0; i < count; i++)
+                {
+                    int slot = used[i];
+                    int value = sample(slot, sourceX + offsetX[i], sourceY + offsetY[i]);
+
+                    if (value >= 0)
+                    {
+                        samples[sampleCount++] = value;
+                    }
+                }
+
+                if (sampleCount == 0)
+                {
+                    // Only possible at the border when upscaling; use the reference as is
+                    samples[sampleCount++] = sample(used[0],
+                                                    Math.max(0f, Math.min(width - 1, sourceX)),
+                                                    Math.max(0f, Math.min(height - 1, sourceY)));
+                }
+
+                result[y * fusedWidth + x] = (byte) ((method == Method.MEDIAN) ? median(sampleCount) : mean(sampleCount));
+            }
+        }
+    }
+
+    /**
+     * @return Bilinear sample of a stored crop, or -1 outside of it.
+     */
+    private int sample(int slot, float x, float y)
+    {
+        int width = ringWidths[slot];
+        int height = ringHeights[slot];
+
+        if (x < 0f || y < 0f || x > width - 1 || y > height - 1)
+        {
+            return -1;
+        }
+
+        int x0 = Math.min((int) x, width - 2);
+        int y0 = Math.min((int) y, height - 2);
+        float fx = x - x0;
+        float fy = y - y0;
+        byte[] pixels = ringPixels[slot];
+        int index = y0 * width + x0;
+
+        float top = (pixels[index] & 0xff) * (1f - fx) + (pixels[index + 1] & 0xff) * fx;
+        float bottom = (pixels[index + width] & 0xff) * (1f - fx) + (pixels[index + width + 1] & 0xff) * fx;
+
+        return (int) (top * (1f - fy) + bottom * fy + 0.5f);
+    }
+
+    private int mean(int count)
+    {
+        int sum = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            sum += samples[i];
+        }
+
+        return (sum + count / 2) / count;
+    }
+
+    private int median(int count)
+    {
+        // Insertion sort; there are only a few samples
+        for (int i = 1; i < count; i++)
+        {
+            int value = samples[i];
+            int j = i - 1;
+
+            while (j >= 0 && samples[j] > value)
+            {
+                samples[j + 1] = samples[j];
+                j--;
+            }
+
+            samples[j + 1] = value;
+        }
+
+        return ((count & 1) == 1) ? samples[count / 2] : (samples[count / 2 - 1] + samples[count / 2] + 1) / 2;
+    }
+
+    private static float hann(int index, int size)
+    {
+        return 0.5f - 0.5f * (float) Math.cos(2.0 * Math.PI * index / (size - 1));
+    }
+
+    /**
+     * @return Offset of the true peak from the middle sample, by fitting a parabola.
+     */
+    private static float subPixel(float left, float center, float right)
+    {
+        float denominator = left - 2f * center + right;
+        return (denominator < 0f) ? 0.5f * (left - right) / denominator : 0f;
+    }
+
+    private static int largestPowerOfTwo(int value)
+    {
+        return (value <= 0) ? 0 : Integer.highestOneBit(value);
+    }
+
+    /**
+     * In-place 2D FFT of a width x height complex array; both sizes must be powers of two. The
+     * inverse transform is not scaled.
+     */
+    private static void fft2d(float[] re, float[] im, int width, int height, boolean inverse)
+    {
+        for (int y = 0; y < height; y++)
+        {
+            fft(re, im, y * width, 1, width, inverse);
+        }
+
+        for (int x = 0; x < width; x++)
+        {
+            fft(re, im, x, width, height, inverse);
+        }
+    }
+
+    /**
+     * In-place radix-2 FFT of n complex values, starting at offset and spaced by stride.
+     */
+    private static void fft(float[] re, float[] im, int offset, int stride, int n, boolean inverse)
+    {
+        // Bit-reversal permutation
+        for (int i = 1, j = 0; i < n; i++)
+        {
+            int bit = n >> 1;
+
+            for (; (j & bit) != 0; bit >>= 1)
+            {
+                j ^= bit;
+            }
+
+            j ^= bit;
+
+            if (i < j)
+            {
+                int a = offset + i * stride;
+                int b = offset + j * stride;
+                float tempRe = re[a];
+                float tempIm = im[a];
+                re[a] = re[b];
+                im[a] = im[b];
+                re[b] = tempRe;
+                im[b] = tempIm;
+            }
+        }
+
+        for (int length = 2; length <= n; length <<= 1)
+        {
+            double angle = 2.0 * Math.PI / length * (inverse ? 1 : -1);
+            float stepRe = (float) Math.cos(angle);
+            float stepIm = (float) Math.sin(angle);
+            int half = length >> 1;
+
+            for (int i = 0; i < n; i += length)
+            {
+                float wRe = 1f;
+                float wIm = 0f;
+
+                for (int k = 0; k < half; k++)
+                {
+                    int a = offset + (i + k) * stride;
+                    int b = offset + (i + k + half) * stride;
+                    float vRe = re[b] * wRe - im[b] * wIm;
+                    float vIm = re[b] * wIm + im[b] * wRe;
+
+                    re[b] = re[a] - vRe;
+                    im[b] = im[a] - vIm;
+                    re[a] += vRe;
+                    im[a] += vIm;
+
+                    float nextRe = wRe * stepRe - wIm * stepIm;
+                    wIm = wRe * stepIm + wIm * stepRe;
+                    wRe = nextRe;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format(Locale.US, "%s x%d fused %d, %.2f frames avg, %.3f ms avg",
+                             method.name().toLowerCase(Locale.US),
+                             scale,
+                             fusedCount,
+                             (fusedCount > 0) ? (double) framesUsed / fusedCount : 0.0,
+                             (fusedCount > 0) ? totalNanos / 1e6 / fusedCount : 0.0);
+    }
+}
@@ -0,0 +1,210 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import com.mauriciotogneri.ocrtest.camera.CameraManager;
+import com.mauriciotogneri.ocrtest.camera.PreviewFrameListener;
+
+import java.util.Locale;
+
+/**
+ * Keeps the sharpest preview frames of the last moments for single-shot mode. The frame that
+ * arrives right after the shutter press is often blurred by the press itself; recognizing the
+ * sharpest frame from just before it spares the user another try.
+ * <p>
+ * Every preview frame is scored on the camera thread with a sparse Laplacian of the framing
+ * rectangle. Its Y plane is only copied when it beats a stored frame or a slot is free or expired,
+ * so the preview buffer goes straight back to the camera.
+ */
+final class BestFrameSelector implements PreviewFrameListener
+{
+    private final CameraManager cameraManager;
+    private final long windowNanos;
+    private final FrameAnalysis analysis;
+
+    private final byte[][] slotFrames;
+    private final float[] slotScores;
+    private final long[] slotTimes;
+    private int frameWidth;
+    private int frameHeight;
+    private boolean active;
+
+    private long scoredCount;
+    private long storedCount;
+    private long selectedCount;
+    private long emptyCount;
+    private long scoreNanos;
+
+    /**
+     * @param capacity     Number of frames kept.
+     * @param windowMillis Age, in milliseconds, after which a frame is no longer selected.
+     */
+    BestFrameSelector(CameraManager cameraManager, int capacity, long windowMillis)
+    {
+        this.cameraManager = cameraManager;
+        this.windowNanos = windowMillis * 1000000L;
+        this.analysis = new FrameAnalysis(0, 0);
+        this.slotFrames = new byte[Math.max(1, capacity)][];
+        this.slotScores = new float[slotFrames.length];
+        this.slotTimes = new long[slotFrames.length];
+    }
+
+    /**
+     * Starts keeping frames, forgetting those kept before.
+     */
+    synchronized void start()
+    {
+        for (int i = 0; i < slotTimes.length; i++)
+        {
+            slotTimes[i] = 0;
+        }
+
+        active = true;
+    }
+
+    /**
+     * Stops keeping frames.
+     */
+    synchronized void pause()
+    {
+        active = false;
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, int width, int height)
+    {
+        try
+        {
+            store(data, width, height);
+        }
+        finally
+        {
+            cameraManager.releasePreviewBuffer(data);
+        }
+    }
+
+    private synchronized void store(byte[] data, int width, int height)
+    {
+        if (!active)
+        {
+            return;
+        }
+
+        PlanarYUVLuminanceSource source = cameraManager.buildLuminanceSource(data, width, height);
+
+        if (source == null)
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+        source.analyze(analysis);
+        float score = FrameQualityGate.measureSharpness(analysis.getData(),
+                                                        analysis.getOffset(),
+                                                        analysis.getStride(),
+                                                        analysis.getWidth(),
+                                                        analysis.getHeight(),
+                                                        2);
+        scoredCount++;
+
+        if (width != frameWidth || height != frameHeight)
+        {
+            // The preview size changed; the stored frames no longer fit
+            start();
+            frameWidth = width;
+            frameHeight = height;
+        }
+
+        int slot = -1;
+
+        for (int i = 0; i < slotFrames.length; i++)
+        {
+            if (isExpired(i, now))
+            {
+                slot = i;
+                break;
+            }
+
+            if (slotScores[i] < score && (slot < 0 || slotScores[i] < slotScores[slot]))
+            {
+                slot = i;
+            }
+        }
+
+        if (slot >= 0)
+        {
+            int size = width * height;
+
+            if (slotFrames[slot] == null || slotFrames[slot].length < size)
+            {
+                slotFrames[slot] = new byte[size];
+            }
+
+            // Only the Y plane is needed for recognition
+            System.arraycopy(data, 0, slotFrames[slot], 0, size);
+            slotScores[slot] = score;
+            slotTimes[slot] = now;
+            storedCount++;
+        }
+
+        scoreNanos += System.nanoTime() - now;
+    }
+
+    /**
+     * Hands over the sharpest frame kept within the time window. The frame holds only the Y plane
+     * of a {@link #getFrameWidth()} x {@link #getFrameHeight()} preview frame, and is no longer
+     * kept.
+     *
+     * @return The frame, or null if there is none.
+     */
+    synchronized byte[] takeBest()
+    {
+        long now = System.nanoTime();
+        int best = -1;
+
+        for (int i = 0; i < slotFrames.length; i++)
+        {
+            if (!isExpired(i, now) && (best < 0 || slotScores[i] > slotScores[best]))
+            {
+                best = i;
+            }
+        }
+
+        if (best < 0)
+        {
+            emptyCount++;
+            return null;
+        }
+
+        byte[] frame = slotFrames[best];
+        slotFrames[best] = null;
+        slotTimes[best] = 0;
+        selectedCount++;
+
+        return frame;
+    }
+
+    synchronized int getFrameWidth()
+    {
+        return frameWidth;
+    }
+
+    synchronized int getFrameHeight()
+    {
+        return frameHeight;
+    }
+
+    private boolean isExpired(int slot, long now)
+    {
+        return (slotTimes[slot] == 0) || (now - slotTimes[slot] > windowNanos);
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format(Locale.US, "scored %d, stored %d, selected %d, empty %d, %.3f ms avg",
+                             scoredCount,
+                             storedCount,
+                             selectedCount,
+                             emptyCount,
+                             (scoredCount > 0) ? scoreNanos / 1e6 / scoredCount : 0.0);
+    }
+}
@@ -0,0 +1,224 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounding boxes of a recognition, of every page level, stored as packed columns of ints instead
+ * of one {@link Rect} per box. Continuous recognition produces a result several times a second, so
+ * the tables are also pooled: a result gives its table back once nothing looks at its boxes.
+ * <p>
+ * Boxes are read one at a time into a caller's {@link Rect}, or, for older callers, as a list of
+ * rects per level that is only built when asked for. A table is filled on one thread and then only
+ * read, after being handed over through a message or a queue.
+ */
+final class BoxTable
+{
+    private static final int INITIAL_CAPACITY = 32;
+    private static final BlockingQueue<BoxTable> POOL = new ArrayBlockingQueue<BoxTable>(8);
+
+    private static final ResultExtractor.Level[] LEVELS = ResultExtractor.Level.values();
+
+    private int[] lefts;
+    private int[] tops;
+    private int[] rights;
+    private int[] bottoms;
+    private int[] levels;
+    private int[] confidences;
+    private int count;
+
+    /**
+     * Levels that were extracted, even if they hold no boxes; the others read as null lists.
+     */
+    private final boolean[] hasLevel;
+    private final List<List<Rect>> rectLists;
+
+    private BoxTable()
+    {
+        this.lefts = new int[INITIAL_CAPACITY];
+        this.tops = new int[INITIAL_CAPACITY];
+        this.rights = new int[INITIAL_CAPACITY];
+        this.bottoms = new int[INITIAL_CAPACITY];
+        this.levels = new int[INITIAL_CAPACITY];
+        this.confidences = new int[INITIAL_CAPACITY];
+        this.hasLevel = new boolean[LEVELS.length];
+        this.rectLists = new ArrayList<List<Rect>>(LEVELS.length);
+
+        for (int i = 0; i < LEVELS.length; i++)
+        {
+            rectLists.add(null);
+        }
+    }
+
+    /**
+     * @return An empty table, from the pool if there is one.
+     */
+    static BoxTable obtain()
+    {
+        BoxTable table = POOL.poll();
+        return (table != null) ? table : new BoxTable();
+    }
+
+    /**
+     * Empties the table and gives it back to the pool. It must not be used afterwards.
+     */
+    void recycle()
+    {
+        clear();
+        POOL.offer(this);
+    }
+
+    void clear()
+    {
+        count = 0;
+
+        for (int i = 0; i < LEVELS.length; i++)
+        {
+            hasLevel[i] = false;
+            rectLists.set(i, null);
+        }
+    }
+
+    /**
+     * Marks a level as extracted, so that it reads as an empty list rather than null even if no box
+     * is added to it.
+     */
+    void addLevel(ResultExtractor.Level level)
+    {
+        hasLevel[level.ordinal()] = true;
+        rectLists.set(level.ordinal(), null);
+    }
+
+    void add(ResultExtractor.Level level, int left, int top, int right, int bottom, int confidence)
+    {
+        if (count == lefts.length)
+        {
+            int capacity = count * 2;
+            lefts = grow(lefts, capacity);
+            tops = grow(tops, capacity);
+            rights = grow(rights, capacity);
+            bottoms = grow(bottoms, capacity);
+            levels = grow(levels, capacity);
+            confidences = grow(confidences, capacity);
+        }
+
+        lefts[count] = left;
+        tops[count] = top;
+        rights[count] = right;
+        bottoms[count] = bottom;
+        levels[count] = level.ordinal();
+        confidences[count] = confidence;
+        count++;
+
+        addLevel(level);
+    }
+
+    /**
+     * Replaces the boxes of a level with the given ones, or removes the level if they are null.
+     */
+    void set(ResultExtractor.Level level, List<Rect> rects)
+    {
+        int kept = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            if (levels[i] != level.ordinal())
+            {
+                lefts[kept] = lefts[i];
+                tops[kept] = tops[i];
+                rights[kept] = rights[i];
+                bottoms[kept] = bottoms[i];
+                levels[kept] = levels[i];
+                confidences[kept] = confidences[i];
+                kept++;
+            }
+        }
+
+        count = kept;
+        hasLevel[level.ordinal()] = false;
+        rectLists.set(level.ordinal(), null);
+
+        if (rects != null)
+        {
+            addLevel(level);
+
+            for (Rect rect : rects)
+            {
+                add(level, rect.left, rect.top, rect.right, rect.bottom, 0);
+            }
+        }
+    }
+
+    /**
+     * @return Number of boxes, of all levels.
+     */
+    int size()
+    {
+        return count;
+    }
+
+    ResultExtractor.Level getLevel(int index)
+    {
+        return LEVELS[levels[index]];
+    }
+
+    int getConfidence(int index)
+    {
+        return confidences[index];
+    }
+
+    /**
+     * Copies a box into the given rect, so that drawing does not allocate.
+     *
+     * @return The given rect.
+     */
+    Rect getRect(int index, Rect rect)
+    {
+        rect.set(lefts[index], tops[index], rights[index], bottoms[index]);
+        return rect;
+    }
+
+    /**
+     * @return The boxes of a level as rects, built the first time they are asked for, or null if the
+     * level was not extracted.
+     */
+    List<Rect> getRects(ResultExtractor.Level level)
+    {
+        int ordinal = level.ordinal();
+
+        if (!hasLevel[ordinal])
+        {
+            return null;
+        }
+
+        List<Rect> rects = rectLists.get(ordinal);
+
+        if (rects == null)
+        {
+            rects = new ArrayList<Rect>();
+
+            for (int i = 0; i < count; i++)
+            {
+                if (levels[i] == ordinal)
+                {
+                    rects.add(getRect(i, new Rect()));
+                }
+            }
+
+            rectLists.set(ordinal, rects);
+        }
+
+        return rects;
+    }
+
+    private static int[] grow(int[] column, int capacity)
+    {
+        int[] grown = new int[capacity];
+        System.arraycopy(column, 0, grown, 0, column.length);
+        return grown;
+    }
+}
@@ -9,6 +9,7 @@ import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.text.SpannableStringBuilder;
 import android.text.style.CharacterStyle;
@@ -25,16 +26,19 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.googlecode.tesseract.android.TessBaseAPI;
 import com.mauriciotogneri.ocrtest.R;
 import com.mauriciotogneri.ocrtest.camera.CameraManager;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 // https://github.com/rmtheis/android-ocr
 public final class CaptureActivity extends AppCompatActivity implements SurfaceHolder.Callback
 {
     private CameraManager cameraManager;
+    private StartupOrchestrator startup;
     private CaptureActivityHandler handler;
     private SurfaceHolder surfaceHolder;
     private TextView statusViewBottom;
@@ -42,25 +46,39 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
     private View resultView;
     private View progressView;
     private OcrResult lastResult;
+    private NumberConsensus numberConsensus;
+    private DigitSequenceScanner digitScanner;
+    private StringBuilder bestCandidate;
+    private NumberValidator numberValidator;
     private boolean hasSurface;
-    private TessBaseAPI baseApi; // Java interface for the Tesseract OCR engine
+    private OcrEnginePool enginePool; // Initialized Tesseract OCR engines
 
     private final String sourceLanguageCodeOcr = Configuration.DEFAULT_SOURCE_LANGUAGE_CODE;
     private final boolean isContinuousModeActive = Configuration.DEFAULT_TOGGLE_CONTINUOUS;
 
     private ProgressDialog dialog; // for initOcr - language download & unzip
     private ProgressDialog indeterminateDialog; // also for initOcr - init OCR engine
-    private boolean isEngineReady;
     private boolean isPaused;
+    private long createdAt;
+    private boolean isWarmStart;
+    private boolean isFirstDecodePending;
 
     public Handler getHandler()
     {
         return handler;
     }
 
-    public TessBaseAPI getBaseApi()
+    OcrEnginePool getEnginePool()
     {
-        return baseApi;
+        return enginePool;
+    }
+
+    /**
+     * @return The validator for candidate numbers; safe to use from any thread.
+     */
+    NumberValidator getNumberValidator()
+    {
+        return numberValidator;
     }
 
     public CameraManager getCameraManager()
@@ -87,6 +105,16 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         handler = null;
         lastResult = null;
         hasSurface = false;
+        numberConsensus = new NumberConsensus(Configuration.DEFAULT_NUMBER_LENGTH,
+                                              Configuration.DEFAULT_CONSENSUS_WINDOW,
+                                              Configuration.DEFAULT_CONSENSUS_FRAMES,
+                                              Configuration.DEFAULT_CONSENSUS_AGREEMENT);
+        digitScanner = new DigitSequenceScanner(Configuration.DEFAULT_NUMBER_LENGTH,
+                                                Configuration.DEFAULT_NUMBER_SEPARATORS,
+                                                Configuration.DEFAULT_MAX_SEPARATOR_RUN);
+        bestCandidate = new StringBuilder(Configuration.DEFAULT_NUMBER_LENGTH + 1);
+        numberValidator = createNumberValidator();
+        numberConsensus.setValidator(numberValidator, Configuration.DEFAULT_VERIFIED_CONSENSUS_FRAMES);
 
         TextView ocrResultView = (TextView) findViewById(R.id.ocr_result_text_view);
         registerForContextMenu(ocrResultView);
@@ -96,8 +124,24 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         progressView = findViewById(R.id.indeterminate_progress_indicator_view);
 
         cameraManager = new CameraManager(getApplication());
+        startup = new StartupOrchestrator(cameraManager, new StartupOrchestrator.Callback()
+        {
+            @Override
+            public void onStartupJoined()
+            {
+                initCamera(surfaceHolder);
+            }
+
+            @Override
+            public void onCameraFailed(Exception e)
+            {
+                Log.e(getClass().getName(), "Could not open the camera", e);
+                showErrorMessage("Error", "Could not initialize camera. Please try restarting device.");
+            }
+        });
 
-        isEngineReady = false;
+        createdAt = SystemClock.elapsedRealtime();
+        isFirstDecodePending = true;
     }
 
     @Override
@@ -105,6 +149,7 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
     {
         super.onResume();
         resetStatusView();
+        numberConsensus.reset();
 
         SurfaceView surfaceView = (SurfaceView) findViewById(R.id.preview_view);
         surfaceHolder = surfaceView.getHolder();
@@ -115,8 +160,18 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
             surfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
         }
 
-        // Do OCR engine initialization, if necessary
-        if (baseApi == null)
+        // Open the camera while the engines are being initialized
+        startup.start();
+
+        // Reuse the engines of an earlier scan, if they are still around
+        if (enginePool == null)
+        {
+            enginePool = OcrEngineHolder.get(this).acquire(sourceLanguageCodeOcr, Configuration.DEFAULT_OCR_ENGINE_MODE);
+            isWarmStart = isWarmStart || (enginePool != null && enginePool.isInitStarted());
+        }
+
+        // Do OCR engine initialization, if necessary; engines still being warmed up are waited for
+        if (enginePool == null || !enginePool.isReady())
         {
             // Initialize the OCR engine
             File storageDirectory = getStorageDirectory();
@@ -141,29 +196,23 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
     {
         Log.d(getClass().getName(), "resumeOCR()");
 
-        // This method is called when Tesseract has already been successfully initialized, so set
-        // isEngineReady = true here.
-        isEngineReady = true;
-
         isPaused = false;
 
-        if (handler != null)
+        // Before decoding restarts, so that no frame is recognized with the old settings
+        if (enginePool != null)
         {
-            handler.resetState();
+            enginePool.configure(Configuration.DEFAULT_PAGE_SEGMENTATION_MODE,
+                                 Configuration.DEFAULT_BLACKLIST,
+                                 Configuration.DEFAULT_WHITELIST);
         }
-        if (baseApi != null)
+        if (handler != null)
         {
-            baseApi.setPageSegMode(Configuration.DEFAULT_PAGE_SEGMENTATION_MODE);
-            baseApi.setVariable(TessBaseAPI.VAR_CHAR_BLACKLIST, Configuration.DEFAULT_BLACKLIST);
-            baseApi.setVariable(TessBaseAPI.VAR_CHAR_WHITELIST, Configuration.DEFAULT_WHITELIST);
+            handler.resetState();
         }
 
-        if (hasSurface)
-        {
-            // The activity was paused but not stopped, so the surface still exists. Therefore
-            // surfaceCreated() won't be called, so init the camera here.
-            initCamera(surfaceHolder);
-        }
+        // The preview starts once the camera is open and the surface exists; if the activity was
+        // paused but not stopped, the surface still exists and surfaceCreated() won't be called
+        startup.onEnginesReady();
     }
 
     /**
@@ -195,7 +244,7 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         isPaused = false;
         resetStatusView();
         setStatusViewForContinuous();
-        DecodeHandler.resetDecodeState();
+        numberConsensus.reset();
         handler.resetState();
     }
 
@@ -209,13 +258,12 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
             Log.e(getClass().getName(), "surfaceCreated gave us a null surface");
         }
 
-        // Only initialize the camera if the OCR engine is ready to go.
-        if (!hasSurface && isEngineReady)
+        // The preview starts once the OCR engine is ready to go and the camera is open
+        if (!hasSurface)
         {
-            Log.d(getClass().getName(), "surfaceCreated(): calling initCamera()...");
-            initCamera(holder);
+            hasSurface = true;
+            startup.onSurfaceReady();
         }
-        hasSurface = true;
     }
 
     /**
@@ -230,7 +278,7 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         }
         try
         {
-            // Open and initialize the camera
+            // Show the preview of the camera, which is normally open already
             cameraManager.openDriver(surfaceHolder);
 
             // Creating the handler starts the preview, which can also throw a RuntimeException.
@@ -251,8 +299,9 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
             handler.quitSynchronously();
         }
 
-        // Stop using the camera, to avoid conflicting with other camera-based apps
-        cameraManager.closeDriver();
+        // Stop using the camera, to avoid conflicting with other camera-based apps; it is closed on
+        // the camera thread, after an open that may still be in progress
+        startup.stop();
 
         if (!hasSurface)
         {
@@ -274,9 +323,15 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
     @Override
     protected void onDestroy()
     {
-        if (baseApi != null)
+        startup.shutdown();
+
+        if (enginePool != null)
         {
-            baseApi.end();
+            Log.d(getClass().getName(), "OCR engines: " + enginePool);
+
+            // Kept for the next scan unless memory runs low
+            OcrEngineHolder.get(this).release(enginePool);
+            enginePool = null;
         }
         super.onDestroy();
     }
@@ -339,6 +394,7 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
     public void surfaceDestroyed(SurfaceHolder holder)
     {
         hasSurface = false;
+        startup.onSurfaceLost();
     }
 
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height)
@@ -398,8 +454,6 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
 
     private void initOcrEngine(File storageRoot, String languageCode)
     {
-        isEngineReady = false;
-
         // Set up the dialog box for the thermometer-style download progress indicator
         if (dialog != null)
         {
@@ -428,8 +482,12 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         //        }
 
         // Start AsyncTask to install language data and init OCR
-        baseApi = new TessBaseAPI();
-        new OcrInitAsyncTask(this, baseApi, dialog, indeterminateDialog, languageCode, Configuration.DEFAULT_OCR_ENGINE_MODE).execute(storageRoot.toString());
+        if (enginePool == null)
+        {
+            enginePool = new OcrEnginePool(OcrEnginePool.computeSize(this));
+            OcrEngineHolder.get(this).adopt(enginePool, languageCode, Configuration.DEFAULT_OCR_ENGINE_MODE);
+        }
+        new OcrInitAsyncTask(this, enginePool, dialog, indeterminateDialog, languageCode, Configuration.DEFAULT_OCR_ENGINE_MODE).execute(storageRoot.toString());
     }
 
     /**
@@ -440,7 +498,7 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
      */
     boolean handleOcrDecode(OcrResult ocrResult)
     {
-        lastResult = ocrResult;
+        setLastResult(ocrResult);
 
         // Test whether the result is null
         if (ocrResult.getText() == null || ocrResult.getText().equals(""))
@@ -490,6 +548,21 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         return true;
     }
 
+    /**
+     * Records the time to the first continuous decode, whether it read anything or not, for this
+     * activity and for the current start.
+     */
+    private void onDecodeFinished()
+    {
+        startup.onDecodeFinished();
+
+        if (isFirstDecodePending)
+        {
+            isFirstDecodePending = false;
+            OcrWarmUp.recordFirstDecode(isWarmStart, SystemClock.elapsedRealtime() - createdAt);
+        }
+    }
+
     /**
      * Displays information relating to the results of a successful real-time OCR request.
      *
@@ -497,19 +570,8 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
      */
     void handleOcrContinuousDecode(OcrResult ocrResult)
     {
-
-        lastResult = ocrResult;
-
-        // Send an OcrResultText object to the ViewfinderView for text rendering
-        OcrResultText resultText = new OcrResultText(ocrResult.getText(),
-                                                     ocrResult.getWordConfidences(),
-                                                     ocrResult.getMeanConfidence(),
-                                                     ocrResult.getBitmapDimensions(),
-                                                     ocrResult.getRegionBoundingBoxes(),
-                                                     ocrResult.getTextlineBoundingBoxes(),
-                                                     ocrResult.getStripBoundingBoxes(),
-                                                     ocrResult.getWordBoundingBoxes(),
-                                                     ocrResult.getCharacterBoundingBoxes());
+        onDecodeFinished();
+        setLastResult(ocrResult);
 
         Integer meanConfidence = ocrResult.getMeanConfidence();
 
@@ -524,7 +586,7 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
 
             statusViewTop.getBackground().setAlpha(meanConfidence * (255 / 100));*/
 
-            String number = extractNumber(ocrResult.getText());
+            String number = extractNumber(ocrResult);
 
             if (number != null)
             {
@@ -547,34 +609,102 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         }
     }
 
-    private String extractNumber(String text)
+    /**
+     * Builds the validator chain for candidate numbers: the configured checksum, if any, and the
+     * allowed issuer prefixes bundled with the app.
+     */
+    private NumberValidator createNumberValidator()
     {
-        String[] parts = text.split("\\W+");
+        List<NumberValidator> validators = new ArrayList<NumberValidator>();
 
-        for (String part : parts)
+        if (Configuration.DEFAULT_NUMBER_CHECKSUM != null)
         {
-            String trimmed = part.trim();
+            validators.add(Configuration.DEFAULT_NUMBER_CHECKSUM);
+        }
 
-            if ((trimmed.length() == 20) && (isAllDigits(trimmed)))
-            {
-                return trimmed;
-            }
+        try
+        {
+            PrefixTrie prefixes = PrefixTrie.load(getResources().openRawResource(R.raw.issuer_prefixes));
+            validators.add(prefixes);
+        }
+        catch (IOException e)
+        {
+            Log.e(getClass().getName(), "Could not load the issuer prefixes", e);
         }
 
-        return null;
+        return new ValidatorChain(validators.toArray(new NumberValidator[validators.size()]));
     }
 
-    private boolean isAllDigits(String number)
+    /**
+     * Feeds the digit sequence of the result most likely to be the number to the consensus voter,
+     * so that each frame casts one vote however many sequences it holds. Full-length sequences the
+     * validator accepts come first, then full-length ones, then the most confident.
+     *
+     * @return The number once enough consecutive results agree on it, or null.
+     */
+    private String extractNumber(OcrResult ocrResult)
     {
-        for (int i = 0; i < number.length(); i++)
+        String text = ocrResult.getText();
+
+        if (text == null)
         {
-            if (!Character.isDigit(number.charAt(i)))
+            return null;
+        }
+
+        int[] wordConfidences = ocrResult.getWordConfidences();
+        int bestRank = -1;
+        int bestConfidence = -1;
+
+        digitScanner.reset(text);
+
+        while (digitScanner.next())
+        {
+            CharSequence digits = digitScanner.getDigits();
+            int rank = 0;
+
+            if (digits.length() == numberConsensus.getLength())
             {
-                return false;
+                rank = (numberValidator.validate(digits, 0, digits.length()) == NumberValidator.Result.INVALID) ? 1 : 2;
             }
+
+            int confidence = getConfidence(ocrResult, wordConfidences, digitScanner.getFirstWord(), digitScanner.getLastWord());
+
+            if (rank > bestRank || (rank == bestRank && confidence > bestConfidence))
+            {
+                bestRank = rank;
+                bestConfidence = confidence;
+                bestCandidate.setLength(0);
+                bestCandidate.append(digits);
+            }
+        }
+
+        if (bestRank < 0)
+        {
+            return null;
         }
 
-        return !number.isEmpty();
+        return numberConsensus.offer(bestCandidate, bestConfidence);
+    }
+
+    /**
+     * @return Confidence of the least confident word in the given range, or the mean confidence if
+     * there are no word confidences for it.
+     */
+    private int getConfidence(OcrResult ocrResult, int[] wordConfidences, int firstWord, int lastWord)
+    {
+        if (wordConfidences == null || lastWord >= wordConfidences.length)
+        {
+            return ocrResult.getMeanConfidence();
+        }
+
+        int confidence = wordConfidences[firstWord];
+
+        for (int i = firstWord + 1; i <= lastWord; i++)
+        {
+            confidence = Math.min(confidence, wordConfidences[i]);
+        }
+
+        return confidence;
     }
 
     /**
@@ -584,7 +714,8 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
      */
     void handleOcrContinuousDecode(OcrResultFailure obj)
     {
-        lastResult = null;
+        onDecodeFinished();
+        setLastResult(null);
 
         // Reset the text in the recognized text box.
         statusViewTop.setText("");
@@ -651,7 +782,28 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
             statusViewTop.setTextSize(14);
             statusViewTop.setVisibility(View.VISIBLE);
         }
-        lastResult = null;
+        setLastResult(null);
+    }
+
+    /**
+     * Replaces the last result, and gives the boxes and luminance buffer of the one it replaces back
+     * to their pools, since nothing looks at them again.
+     */
+    private void setLastResult(OcrResult ocrResult)
+    {
+        if (lastResult != null && lastResult != ocrResult)
+        {
+            if (handler != null)
+            {
+                handler.recycleResult(lastResult);
+            }
+            else
+            {
+                lastResult.recycleBoxes();
+            }
+        }
+
+        lastResult = ocrResult;
     }
 
     /**
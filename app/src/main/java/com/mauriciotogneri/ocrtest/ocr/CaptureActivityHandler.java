@@ -1,5 +1,6 @@
 package com.mauriciotogneri.ocrtest.ocr;
 
+import android.graphics.Point;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
@@ -21,7 +22,12 @@ final class CaptureActivityHandler extends Handler
 
     private final CaptureActivity activity;
     private final DecodeThread decodeThread;
-    private static State state;
+    private final DecodeScheduler decodeScheduler;
+    private final OcrPipeline pipeline;
+    private final FramePreprocessor preprocessor;
+    private final ResolutionLadder ladder;
+    private final BestFrameSelector frameSelector;
+    private State state;
     private final CameraManager cameraManager;
 
     private enum State
@@ -42,8 +48,22 @@ final class CaptureActivityHandler extends Handler
         // Start ourselves capturing previews (and decoding if using continuous recognition mode).
         cameraManager.startPreview();
 
-        decodeThread = new DecodeThread(activity);
+        decodeScheduler = new DecodeScheduler(cameraManager);
+        pipeline = new OcrPipeline(activity.getEnginePool(),
+                                   Configuration.DEFAULT_RECOGNITION_QUEUE_CAPACITY,
+                                   Configuration.DEFAULT_BACKPRESSURE_POLICY,
+                                   Configuration.DEFAULT_RECOGNITION_DEADLINE,
+                                   Configuration.DEFAULT_SUPERSEDE_AGE);
+        Point previewSize = cameraManager.getCameraResolution();
+        preprocessor = (previewSize != null) ? new FramePreprocessor(previewSize.x, previewSize.y) : new FramePreprocessor(0, 0);
+        ladder = new ResolutionLadder(Configuration.DEFAULT_RECOGNITION_SCALES,
+                                      Configuration.DEFAULT_LADDER_MIN_HIT_RATE,
+                                      Configuration.DEFAULT_LADDER_MAX_PIXELS);
+        decodeThread = new DecodeThread(activity, decodeScheduler, pipeline, preprocessor, ladder);
         decodeThread.start();
+        frameSelector = (Configuration.DEFAULT_BEST_FRAME_COUNT > 0)
+                ? new BestFrameSelector(cameraManager, Configuration.DEFAULT_BEST_FRAME_COUNT, Configuration.DEFAULT_BEST_FRAME_WINDOW)
+                : null;
 
         if (isContinuousModeActive)
         {
@@ -58,6 +78,13 @@ final class CaptureActivityHandler extends Handler
         {
             state = State.SUCCESS;
 
+            if (frameSelector != null)
+            {
+                // Keep the sharpest recent frames for the shutter button
+                frameSelector.start();
+                cameraManager.setPreviewFrameListener(frameSelector);
+            }
+
             restartOcrPreview();
         }
     }
@@ -72,7 +99,11 @@ final class CaptureActivityHandler extends Handler
                 restartOcrPreview();
                 break;
             case R.id.ocr_continuous_decode_failed:
-                DecodeHandler.resetDecodeState();
+                // The decode scheduler has already moved on to the next frame; just update the UI.
+                if (state != State.CONTINUOUS)
+                {
+                    break;
+                }
                 try
                 {
                     activity.handleOcrContinuousDecode((OcrResultFailure) message.obj);
@@ -81,13 +112,14 @@ final class CaptureActivityHandler extends Handler
                 {
                     Log.w(TAG, "got bad OcrResultFailure", e);
                 }
-                if (state == State.CONTINUOUS)
-                {
-                    restartOcrPreviewAndDecode();
-                }
                 break;
             case R.id.ocr_continuous_decode_succeeded:
-                DecodeHandler.resetDecodeState();
+                if (state != State.CONTINUOUS)
+                {
+                    // Arrived after a stop; nothing will show it
+                    recycleResult((OcrResult) message.obj);
+                    break;
+                }
                 try
                 {
                     activity.handleOcrContinuousDecode((OcrResult) message.obj);
@@ -96,10 +128,6 @@ final class CaptureActivityHandler extends Handler
                 {
                     // Continue
                 }
-                if (state == State.CONTINUOUS)
-                {
-                    restartOcrPreviewAndDecode();
-                }
                 break;
             case R.id.ocr_decode_succeeded:
                 state = State.SUCCESS;
@@ -121,15 +149,27 @@ final class CaptureActivityHandler extends Handler
 
         Log.d(TAG, "Setting state to CONTINUOUS_PAUSED.");
         state = State.CONTINUOUS_PAUSED;
+        decodeScheduler.pause();
         removeMessages(R.id.ocr_continuous_decode);
         removeMessages(R.id.ocr_decode);
-        removeMessages(R.id.ocr_continuous_decode_failed);
-        removeMessages(R.id.ocr_continuous_decode_succeeded); // TODO are these removeMessages() calls doing anything?
+        removeMessages(R.id.ocr_continuous_decode_failed); // TODO are these removeMessages() calls doing anything?
+
+        // Queued results are left to be delivered, and recycled since the state is paused
 
         // Freeze the view displayed to the user.
         //    CameraManager.get().stopPreview();
     }
 
+    /**
+     * Gives the pooled parts of a result that nothing will look at again back to their pools: its
+     * bounding boxes, and its luminance buffer, which continuous frames are preprocessed into.
+     */
+    void recycleResult(OcrResult ocrResult)
+    {
+        ocrResult.recycleBoxes();
+        pipeline.recycleLuminance(ocrResult.takeLuminance());
+    }
+
     void resetState()
     {
         //Log.d(TAG, "in restart()");
@@ -141,17 +181,41 @@ final class CaptureActivityHandler extends Handler
         }
     }
 
+    /**
+     * @return The gate deciding which continuous frames are worth recognizing; its thresholds can
+     * be adjusted while decoding runs.
+     */
+    FrameQualityGate getQualityGate()
+    {
+        return preprocessor.getQualityGate();
+    }
+
     void quitSynchronously()
     {
         state = State.DONE;
+        decodeScheduler.pause();
+
+        if (frameSelector != null)
+        {
+            frameSelector.pause();
+            Log.d(TAG, "Frame selector: " + frameSelector);
+        }
+
+        pipeline.stop();
+        preprocessor.shutdown();
+        Log.d(TAG, "Decode scheduler: " + decodeScheduler);
+        Log.d(TAG, "Preprocessor: " + preprocessor);
+        Log.d(TAG, "Resolution ladder: " + ladder);
         if (cameraManager != null)
         {
             cameraManager.stopPreview();
         }
-        //Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
         try
         {
-            //quit.sendToTarget(); // This always gives "sending message to a Handler on a dead thread"
+            // Recognition runs on the pipeline threads, and was cancelled above, so the decode
+            // thread only has to finish preprocessing its current frame
+            Handler decodeHandler = decodeThread.getHandler();
+            decodeHandler.sendMessageAtFrontOfQueue(Message.obtain(decodeHandler, R.id.quit));
 
             // Wait at most half a second; should be enough time, and onPause() will timeout quickly
             decodeThread.join(500L);
@@ -189,24 +253,36 @@ final class CaptureActivityHandler extends Handler
     }
 
     /**
-     * Send a decode request for realtime OCR mode
+     * Start streaming preview frames to the decode scheduler for realtime OCR mode
      */
     private void restartOcrPreviewAndDecode()
     {
         // Continue capturing camera frames
         cameraManager.startPreview();
 
-        // Continue requesting decode of images
-        cameraManager.requestOcrDecode(decodeThread.getHandler(), R.id.ocr_continuous_decode);
+        // Preprocess the freshest frame whenever the decode thread becomes free
+        decodeScheduler.start(decodeThread.getHandler(), 1);
+        cameraManager.setPreviewFrameListener(decodeScheduler);
     }
 
     /**
-     * Request OCR on the current preview frame.
+     * Request OCR on the sharpest recent preview frame, or on the next one if none was kept.
      */
     private void ocrDecode()
     {
         state = State.PREVIEW_PAUSED;
-        cameraManager.requestOcrDecode(decodeThread.getHandler(), R.id.ocr_decode);
+        byte[] frame = (frameSelector != null) ? frameSelector.takeBest() : null;
+
+        if (frame != null)
+        {
+            Message message = decodeThread.getHandler().obtainMessage(R.id.ocr_decode, frameSelector.getFrameWidth(),
+                                                                      frameSelector.getFrameHeight(), frame);
+            message.sendToTarget();
+        }
+        else
+        {
+            cameraManager.requestOcrDecode(decodeThread.getHandler(), R.id.ocr_decode);
+        }
     }
 
     /**
@@ -15,9 +15,57 @@ public class Configuration
     public static final int DEFAULT_OCR_ENGINE_MODE = TessBaseAPI.OEM_TESSERACT_ONLY;
 
     /**
-     * The default page segmentation mode to use.
+     * The default page segmentation mode to use. Continuous frames are cropped to the digit line
+     * and straightened beforehand, so Tesseract's own orientation detection is not needed.
      */
-    public static final int DEFAULT_PAGE_SEGMENTATION_MODE = TessBaseAPI.PageSegMode.PSM_AUTO_OSD;
+    public static final int DEFAULT_PAGE_SEGMENTATION_MODE = TessBaseAPI.PageSegMode.PSM_SINGLE_LINE;
+
+    /**
+     * Page segmentation mode for images that may hold several lines: single-shot captures, and
+     * continuous frames where no digit line was located.
+     */
+    public static final int DEFAULT_FALLBACK_PAGE_SEGMENTATION_MODE = TessBaseAPI.PageSegMode.PSM_AUTO;
+
+    /**
+     * Upper bound for the number of Tesseract engines recognizing frames in parallel. The actual
+     * number also depends on the available cores and memory.
+     */
+    public static final int DEFAULT_MAX_OCR_ENGINES = 4;
+
+    /**
+     * Time, in milliseconds, that initialized OCR engines are kept after the last capture activity
+     * using them goes away, so that the next scan does not load the language data again.
+     */
+    public static final long DEFAULT_ENGINE_IDLE_TIMEOUT = 60000;
+
+    /**
+     * Number of preprocessed frames that may wait for a free OCR engine.
+     */
+    public static final int DEFAULT_RECOGNITION_QUEUE_CAPACITY = 2;
+
+    /**
+     * What to do with a preprocessed frame when the recognition queue is full.
+     */
+    public static final OcrPipeline.BackpressurePolicy DEFAULT_BACKPRESSURE_POLICY = OcrPipeline.BackpressurePolicy.DROP_OLDEST;
+
+    /**
+     * Longest time, in milliseconds, spent recognizing one continuous frame before it is given up;
+     * 0 for no limit.
+     */
+    public static final long DEFAULT_RECOGNITION_DEADLINE = 1500;
+
+    /**
+     * Shortest time, in milliseconds, that a continuous frame is recognized for before a newer frame
+     * waiting for an engine may cancel it. Without it, frames queued at the camera rate would cancel
+     * every recognition that takes longer than one preview frame.
+     */
+    public static final long DEFAULT_SUPERSEDE_AGE = 600;
+
+    /**
+     * Bounding boxes copied out of the engine after each recognition. Only the word boxes are used,
+     * to annotate the result bitmap; the number itself only needs the text and word confidences.
+     */
+    public static final ResultExtractor.Level[] DEFAULT_RESULT_LEVELS = {ResultExtractor.Level.WORD};
 
     /**
      * Whether to initially show a looping, real-time OCR display.
@@ -34,6 +82,224 @@ public class Configuration
      */
     public static final boolean CONTINUOUS_DISPLAY_METADATA = true;
 
+    /**
+     * Number of preallocated preview buffers cycled between the camera and the decoder. Zero falls
+     * back to one-shot preview callbacks, which allocate a new frame for every request.
+     */
+    public static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
+
+    /**
+     * Number of sharp preview frames kept in single-shot mode, so that the shutter button recognizes
+     * the sharpest recent one instead of the next one. Zero recognizes the next frame.
+     */
+    public static final int DEFAULT_BEST_FRAME_COUNT = 4;
+
+    /**
+     * Age, in milliseconds, after which a kept frame is no longer recognized.
+     */
+    public static final long DEFAULT_BEST_FRAME_WINDOW = 500;
+
+    /**
+     * Renderings of the frame recognized side by side in single-shot mode, each on its own engine,
+     * in order of preference when there are fewer engines. The one that reads a valid number with
+     * the best confidence wins.
+     */
+    public static final FrameVariant[] DEFAULT_ENSEMBLE_VARIANTS = {FrameVariant.RAW,
+                                                                    FrameVariant.STRETCHED,
+                                                                    FrameVariant.BINARIZED,
+                                                                    FrameVariant.INVERTED};
+
+    /**
+     * Minimum sharpness (variance of the Laplacian) of a frame sent to OCR in continuous mode.
+     */
+    public static final float DEFAULT_MIN_SHARPNESS = 60f;
+
+    /**
+     * Range of mean luminance, from 0 to 255, of a frame sent to OCR in continuous mode.
+     */
+    public static final int DEFAULT_MIN_MEAN_LUMINANCE = 40;
+    public static final int DEFAULT_MAX_MEAN_LUMINANCE = 225;
+
+    /**
+     * Maximum share of pure black or pure white pixels in a frame sent to OCR in continuous mode.
+     */
+    public static final float DEFAULT_MAX_CLIPPED_RATIO = 0.3f;
+
+    /**
+     * Minimum luminance step between neighbouring pixels counted as an edge by the text detector.
+     */
+    public static final int DEFAULT_TEXT_EDGE_THRESHOLD = 24;
+
+    /**
+     * Range of the share of edge pixels in the rows of a text line.
+     */
+    public static final float DEFAULT_TEXT_MIN_ROW_EDGE_DENSITY = 0.02f;
+    public static final float DEFAULT_TEXT_MAX_EDGE_DENSITY = 0.4f;
+
+    /**
+     * Range of the height of a text line, as a share of the framing rectangle height.
+     */
+    public static final float DEFAULT_TEXT_MIN_LINE_HEIGHT = 0.05f;
+    public static final float DEFAULT_TEXT_MAX_LINE_HEIGHT = 0.9f;
+
+    /**
+     * Minimum mean horizontal luminance step for a cell to count as part of the digit line.
+     */
+    public static final int DEFAULT_LINE_MIN_CELL_GRADIENT = 12;
+
+    /**
+     * Longest gap, in cells, bridged between parts of the digit line, e.g. between digit groups.
+     */
+    public static final int DEFAULT_LINE_MAX_GAP_CELLS = 3;
+
+    /**
+     * Minimum width to height ratio of the digit line.
+     */
+    public static final float DEFAULT_LINE_MIN_ASPECT_RATIO = 3f;
+
+    /**
+     * Margin kept around the digit line for recognition, as a share of its height.
+     */
+    public static final float DEFAULT_LINE_MARGIN = 0.25f;
+
+    /**
+     * Lowest score, from 0 to 1, of a line for it to be taken as the digit line. The score is high
+     * for lines of characters at a regular pitch, about as many as the number has digits.
+     */
+    public static final float DEFAULT_LINE_MIN_DIGIT_SCORE = 0.2f;
+
+    /**
+     * How many times the score of the second best line the best one needs. Below it, e.g. on a card
+     * with several similar number lines, the whole framing rectangle is recognized instead.
+     */
+    public static final float DEFAULT_LINE_MIN_SCORE_LEAD = 1.2f;
+
+    /**
+     * Largest skew of the digit line, in degrees, that is searched for and corrected.
+     */
+    public static final float DEFAULT_MAX_SKEW_ANGLE = 15f;
+
+    /**
+     * Smallest skew of the digit line, in degrees, that is worth correcting.
+     */
+    public static final float DEFAULT_MIN_DESKEW_ANGLE = 0.5f;
+
+    /**
+     * Number of recent frames whose digit line is fused into the one recognized; 1 disables fusion.
+     */
+    public static final int DEFAULT_FUSION_FRAMES = 3;
+
+    /**
+     * How the registered frames are combined.
+     */
+    public static final BandFusion.Method DEFAULT_FUSION_METHOD = BandFusion.Method.MEAN;
+
+    /**
+     * Upscaling of the fused digit line, 1 or 2. Upscaling helps with small print, but makes
+     * recognition slower.
+     */
+    public static final int DEFAULT_FUSION_SCALE = 1;
+
+    /**
+     * Oldest frame, in milliseconds relative to the newest, that is still fused.
+     */
+    public static final long DEFAULT_FUSION_MAX_AGE = 600;
+
+    /**
+     * Scales, from the lowest to the highest, at which a continuous frame may be recognized. A frame
+     * starts at the lowest scale that has recently been good enough, and is recognized again at the
+     * next scale only if the read is not.
+     */
+    public static final float[] DEFAULT_RECOGNITION_SCALES = {0.5f, 1f, 2f};
+
+    /**
+     * Recent share, from 0 to 1, of good reads that a scale needs to be started at.
+     */
+    public static final float DEFAULT_LADDER_MIN_HIT_RATE = 0.5f;
+
+    /**
+     * Minimum mean confidence of a good read; a good read must also hold a full-length number.
+     */
+    public static final int DEFAULT_LADDER_MIN_CONFIDENCE = 60;
+
+    /**
+     * Minimum number of digits in a read that is not good enough for the crop to climb to the next
+     * scale; reads with fewer digits end the frame at the scale they were made at.
+     */
+    public static final int DEFAULT_LADDER_MIN_CLIMB_DIGITS = 16;
+
+    /**
+     * Largest image, in pixels, handed to Tesseract by the ladder; higher scales are skipped for
+     * larger crops.
+     */
+    public static final int DEFAULT_LADDER_MAX_PIXELS = 400000;
+
+    /**
+     * Local thresholding applied to frames before recognition, or null to leave the thresholding
+     * to Tesseract.
+     */
+    public static final AdaptiveBinarizer.Method DEFAULT_BINARIZATION_METHOD = AdaptiveBinarizer.Method.SAUVOLA;
+
+    /**
+     * Side, in pixels, of the window whose statistics set the threshold of each pixel.
+     */
+    public static final int DEFAULT_BINARIZATION_WINDOW = 31;
+
+    /**
+     * Weight of the local standard deviation in the threshold.
+     */
+    public static final float DEFAULT_BINARIZATION_K = 0.34f;
+
+    /**
+     * Smallest image, in pixels, binarized on several threads, and the number of threads used.
+     */
+    public static final int DEFAULT_BINARIZATION_MIN_PARALLEL_AREA = 200000;
+    public static final int DEFAULT_BINARIZATION_THREADS = 2;
+
+    /**
+     * Number of digits in the number to scan.
+     */
+    public static final int DEFAULT_NUMBER_LENGTH = 20;
+
+    /**
+     * Characters that may separate groups of digits in the printed number.
+     */
+    public static final String DEFAULT_NUMBER_SEPARATORS = " -.";
+
+    /**
+     * Maximum number of consecutive separators between two groups of digits.
+     */
+    public static final int DEFAULT_MAX_SEPARATOR_RUN = 2;
+
+    /**
+     * Number of most recent continuous results that vote on the number.
+     */
+    public static final int DEFAULT_CONSENSUS_WINDOW = 5;
+
+    /**
+     * Number of results that must agree on every digit before the number is accepted.
+     */
+    public static final int DEFAULT_CONSENSUS_FRAMES = 2;
+
+    /**
+     * Share of the confidence-weighted vote that the winning digit needs at every position.
+     */
+    public static final float DEFAULT_CONSENSUS_AGREEMENT = 0.6f;
+
+    /**
+     * Checksum that every full-length read must pass, or null for none. Off by default: the card
+     * numbers scanned, e.g. 80756002901234567890 on the sample health insurance card, carry no Luhn
+     * or mod 97 check digit. Set it, e.g. to a {@link LuhnValidator}, for numbers that do.
+     */
+    public static final NumberValidator DEFAULT_NUMBER_CHECKSUM = null;
+
+    /**
+     * Number of results that must agree on every digit of a number verified by the checksum. Only
+     * used with a checksum; kept at two, so that a single misread that happens to pass the checksum
+     * is not accepted on its own.
+     */
+    public static final int DEFAULT_VERIFIED_CONSENSUS_FRAMES = 2;
+
     public static final String DEFAULT_BLACKLIST = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmopqrstuvwxyz";
 
     public static final String DEFAULT_WHITELIST = "0123456789";
@@ -1,33 +1,66 @@
 package com.mauriciotogneri.ocrtest.ocr;
 
-import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-import com.googlecode.leptonica.android.Pixa;
+import com.googlecode.leptonica.android.Pix;
 import com.googlecode.leptonica.android.ReadFile;
 import com.googlecode.tesseract.android.TessBaseAPI;
 import com.mauriciotogneri.ocrtest.R;
 
+
 /**
  * Class to send bitmap data for OCR.
  * <p>
  * The code for this class was adapted from the ZXing project: https://github.com/zxing/zxing
  */
-public class DecodeHandler extends Handler
+public class DecodeHandler extends Handler implements OcrPipeline.Recognizer
 {
+    /**
+     * Scanner for the configured number, one per thread: the recognizer threads check every level
+     * of every frame with it, and single-shot attempts use it too. Reset before each use.
+     */
+    static final ThreadLocal<DigitSequenceScanner> NUMBER_SCANNER = new ThreadLocal<DigitSequenceScanner>()
+    {
+        @Override
+        protected DigitSequenceScanner initialValue()
+        {
+            return new DigitSequenceScanner(Configuration.DEFAULT_NUMBER_LENGTH,
+                                            Configuration.DEFAULT_NUMBER_SEPARATORS,
+                                            Configuration.DEFAULT_MAX_SEPARATOR_RUN);
+        }
+    };
+
+    /**
+     * Buffer for crops resampled by the resolution ladder, one per recognizer thread. Tesseract
+     * copies the image, so the buffer is free again as soon as the image is set.
+     */
+    private static final ThreadLocal<byte[]> SCALED_LUMINANCE = new ThreadLocal<byte[]>();
+
     private final CaptureActivity activity;
+    private final DecodeScheduler scheduler;
+    private final OcrPipeline pipeline;
+    private final FramePreprocessor preprocessor;
+    private final ResolutionLadder ladder;
+    private final OcrEnginePool enginePool;
     private boolean running = true;
-    private final TessBaseAPI baseApi;
-    private Bitmap bitmap;
-    private static boolean isDecodePending;
-    private long timeRequired;
+    private long frameSequence;
 
-    public DecodeHandler(CaptureActivity activity)
+    DecodeHandler(CaptureActivity activity,
+                  DecodeScheduler scheduler,
+                  OcrPipeline pipeline,
+                  FramePreprocessor preprocessor,
+                  ResolutionLadder ladder)
     {
         this.activity = activity;
-        this.baseApi = activity.getBaseApi();
+        this.scheduler = scheduler;
+        this.pipeline = pipeline;
+        this.preprocessor = preprocessor;
+        this.ladder = ladder;
+        this.enginePool = activity.getEnginePool();
+
+        pipeline.start(this);
     }
 
     @Override
@@ -41,11 +74,15 @@ public class DecodeHandler extends Handler
         switch (message.what)
         {
             case R.id.ocr_continuous_decode:
-                // Only request a decode if a request is not already pending.
-                if (!isDecodePending)
+                // Always decode the freshest frame; older ones have already been recycled.
+                byte[] data = scheduler.takeFrame();
+                if (data != null)
                 {
-                    isDecodePending = true;
-                    ocrContinuousDecode((byte[]) message.obj, message.arg1, message.arg2);
+                    ocrContinuousDecode(data, scheduler.getFrameWidth(), scheduler.getFrameHeight());
+                }
+                else
+                {
+                    scheduler.onDecodeFinished(false);
                 }
                 break;
 
@@ -60,11 +97,6 @@ public class DecodeHandler extends Handler
         }
     }
 
-    public static void resetDecodeState()
-    {
-        isDecodePending = false;
-    }
-
     /**
      * Launch an AsyncTask to perform an OCR decode for single-shot mode.
      *
@@ -77,75 +109,167 @@ public class DecodeHandler extends Handler
         activity.displayProgressDialog();
 
         // Launch OCR asynchronously, so we get the dialog box displayed immediately
-        new OcrRecognizeAsyncTask(activity, baseApi, data, width, height).execute();
+        new OcrRecognizeAsyncTask(activity, enginePool, data, width, height).execute();
     }
 
+    /**
+     * Preprocessing stage: checks the frame and crops out the digit line on this thread, and queues
+     * it for the recognition stage, so that the following frame can be preprocessed while this one
+     * is being recognized. Frames that fail the checks never reach Tesseract.
+     */
     private void ocrContinuousDecode(byte[] data, int width, int height)
     {
+        long start = System.nanoTime();
         PlanarYUVLuminanceSource source = activity.getCameraManager().buildLuminanceSource(data, width, height);
 
         if (source == null)
         {
-            sendContinuousOcrFailMessage();
+            activity.getCameraManager().releasePreviewBuffer(data);
+            scheduler.onDecodeFinished(false);
+            sendContinuousOcrFailMessage(0);
             return;
         }
 
-        bitmap = source.renderCroppedGreyscaleBitmap();
-
-        OcrResult ocrResult = getOcrResult();
-        Handler handler = activity.getHandler();
+        PipelineFrame frame = pipeline.obtainFrame();
 
-        if (handler == null)
+        if (!preprocessor.process(source, frame, ++frameSequence))
         {
+            pipeline.recycleFrame(frame);
+            activity.getCameraManager().releasePreviewBuffer(data);
+            pipeline.getStats().record(PipelineStats.Stage.PREPROCESS, System.nanoTime() - start);
+            scheduler.onDecodeFinished(false);
+            sendContinuousOcrFailMessage(0);
             return;
         }
 
-        if (ocrResult == null)
+        // The crop has been copied out of the preview frame, so the camera can refill it
+        activity.getCameraManager().releasePreviewBuffer(data);
+        pipeline.getStats().record(PipelineStats.Stage.PREPROCESS, System.nanoTime() - start);
+
+        pipeline.submit(frame);
+        scheduler.onDecodeFinished(true);
+    }
+
+    /**
+     * Recognition stage, on a recognizer thread. Results of frames that finish after a newer frame
+     * has already been delivered are dropped, so the UI always moves forward. Frames cancelled by
+     * the watchdog count as failed reads.
+     */
+    @Override
+    public void recognize(TessBaseAPI baseApi, PipelineFrame frame, RecognitionWatchdog.Ticket ticket)
+    {
+        long start = System.currentTimeMillis();
+        baseApi.setPageSegMode(frame.pageSegMode);
+        OcrResult ocrResult = getOcrResult(baseApi, ticket, frame.luminance, frame.width, frame.height);
+        long timeRequired = System.currentTimeMillis() - start;
+        baseApi.clear();
+
+        if (!scheduler.isLatestResult(frame.sequence))
         {
-            try
-            {
-                sendContinuousOcrFailMessage();
-            }
-            catch (NullPointerException e)
-            {
-                activity.stopHandler();
-            }
-            finally
+            if (ocrResult != null)
             {
-                bitmap.recycle();
-                baseApi.clear();
+                // Dropped, so the frame keeps its luminance buffer
+                ocrResult.recycleBoxes();
             }
 
             return;
         }
 
+        if (ocrResult != null)
+        {
+            // The result takes over the luminance buffer, and gives it back to the pipeline once
+            // it is dropped
+            frame.luminance = null;
+        }
+
+        Handler handler = activity.getHandler();
+
+        if (handler == null)
+        {
+            return;
+        }
+
         try
         {
-            Message message = Message.obtain(handler, R.id.ocr_continuous_decode_succeeded, ocrResult);
-            message.sendToTarget();
+            if (ocrResult == null)
+            {
+                sendContinuousOcrFailMessage(timeRequired);
+            }
+            else
+            {
+                Message message = Message.obtain(handler, R.id.ocr_continuous_decode_succeeded, ocrResult);
+                message.sendToTarget();
+            }
         }
         catch (NullPointerException e)
         {
             activity.stopHandler();
         }
-        finally
-        {
-            baseApi.clear();
-        }
     }
 
-    @SuppressWarnings("unused")
-    private OcrResult getOcrResult()
+    /**
+     * Recognizes the crop at the start level of the resolution ladder, climbing to the next level
+     * while the read is not good enough but close: a frame whose read holds far fewer digits than
+     * the number, e.g. while the user is still aiming, would not read at any level, so it is not
+     * worth the cost of the higher ones.
+     *
+     * @return The recognition result, which holds on to the luminance buffer, or null.
+     */
+    private OcrResult getOcrResult(TessBaseAPI baseApi, RecognitionWatchdog.Ticket ticket, byte[] luminance, int width, int height)
     {
         OcrResult ocrResult;
         String textResult;
+        int meanConfidence;
+        float scale;
         long start = System.currentTimeMillis();
 
         try
         {
-            baseApi.setImage(ReadFile.readBitmap(bitmap));
-            textResult = baseApi.getUTF8Text();
-            timeRequired = System.currentTimeMillis() - start;
+            int startLevel = ladder.getStartLevel(width, height);
+            int level = startLevel;
+
+            while (true)
+            {
+                long levelStart = System.nanoTime();
+                byte[] image = ladder.scale(luminance, width, height, level, SCALED_LUMINANCE.get());
+
+                if (image != luminance)
+                {
+                    SCALED_LUMINANCE.set(image);
+                }
+                scale = (image == luminance) ? 1f : ladder.getScale(level);
+                int imageWidth = (image == luminance) ? width : ladder.getScaledSize(width, level);
+                int imageHeight = (image == luminance) ? height : ladder.getScaledSize(height, level);
+
+                Pix pix = ReadFile.readBytes8(image, imageWidth, imageHeight);
+                baseApi.setImage(pix);
+                pix.recycle();
+                textResult = recognizeText(baseApi, ticket);
+
+                if (textResult == null && ticket.isCancelled())
+                {
+                    return null;
+                }
+
+                meanConfidence = baseApi.meanConfidence();
+
+                boolean isGoodRead = isGoodRead(textResult, meanConfidence);
+                ladder.record(level, isGoodRead, System.nanoTime() - levelStart);
+
+                if (isGoodRead)
+                {
+                    ladder.onFrameFinished(startLevel, level);
+                    break;
+                }
+
+                level = isCloseRead(textResult) ? ladder.getNextLevel(level, width, height) : -1;
+
+                if (level < 0)
+                {
+                    ladder.onFrameFinished(startLevel, -1);
+                    break;
+                }
+            }
 
             // Check for failure to recognize text
             if (textResult == null || textResult.equals(""))
@@ -155,14 +279,11 @@ public class DecodeHandler extends Handler
 
             ocrResult = new OcrResult();
             ocrResult.setWordConfidences(baseApi.wordConfidences());
-            ocrResult.setMeanConfidence(baseApi.meanConfidence());
+            ocrResult.setMeanConfidence(meanConfidence);
 
-            // Always get the word bounding boxes--we want it for annotating the bitmap after the user
-            // presses the shutter button, in addition to maybe wanting to draw boxes/words during the
-            // continuous mode recognition.
-            Pixa words = baseApi.getWords();
-            ocrResult.setWordBoundingBoxes(words.getBoxRects());
-            words.recycle();
+            // Only the boxes that something will look at, e.g. the word boxes drawn on the bitmap
+            // after the user presses the shutter button
+            ResultExtractor.extract(baseApi, ocrResult, Configuration.DEFAULT_RESULT_LEVELS, scale);
         }
         catch (RuntimeException e)
         {
@@ -181,15 +302,94 @@ public class DecodeHandler extends Handler
             return null;
         }
 
-        timeRequired = System.currentTimeMillis() - start;
-        ocrResult.setBitmap(bitmap);
+        long timeRequired = System.currentTimeMillis() - start;
+        ocrResult.setLuminance(luminance, width, height);
         ocrResult.setText(textResult);
         ocrResult.setRecognitionTimeRequired(timeRequired);
 
         return ocrResult;
     }
 
-    private void sendContinuousOcrFailMessage()
+    /**
+     * Runs the recognition pass under Tesseract's progress monitor, the only place where it checks
+     * for cancellation, and reads the text from its results.
+     * <p>
+     * tess-two offers no monitored pass without hOCR output, so every pass also builds an hOCR
+     * string that is thrown away.
+     *
+     * @return The recognized text, or null if the watchdog cancelled the pass.
+     */
+    private static String recognizeText(TessBaseAPI baseApi, RecognitionWatchdog.Ticket ticket)
+    {
+        if (ticket.isCancelled())
+        {
+            // Cancelled before the pass started; its stop would be cleared by the monitor set-up
+            return null;
+        }
+
+        baseApi.getHOCRText(0);
+
+        if (ticket.isCancelled())
+        {
+            // The pass stopped part way; asking for the text would start it over
+            return null;
+        }
+
+        return baseApi.getUTF8Text();
+    }
+
+    /**
+     * @return True if the read is confident enough and holds a digit sequence of the number length,
+     * so that a higher resolution would not help.
+     */
+    private boolean isGoodRead(String text, int meanConfidence)
+    {
+        if (text == null || meanConfidence < Configuration.DEFAULT_LADDER_MIN_CONFIDENCE)
+        {
+            return false;
+        }
+
+        DigitSequenceScanner scanner = NUMBER_SCANNER.get();
+        scanner.reset(text);
+
+        while (scanner.next())
+        {
+            if (scanner.getDigits().length() == Configuration.DEFAULT_NUMBER_LENGTH)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return True if the read holds nearly as many digits as the number, so that a higher
+     * resolution may well read it fully or more confidently.
+     */
+    private static boolean isCloseRead(String text)
+    {
+        if (text == null)
+        {
+            return false;
+        }
+
+        int digits = 0;
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+
+            if (c >= '0' && c <= '9')
+            {
+                digits++;
+            }
+        }
+
+        return digits >= Configuration.DEFAULT_LADDER_MIN_CLIMB_DIGITS;
+    }
+
+    private void sendContinuousOcrFailMessage(long timeRequired)
     {
         Handler handler = activity.getHandler();
 
@@ -199,4 +399,4 @@ public class DecodeHandler extends Handler
             message.sendToTarget();
         }
     }
-}
\ No newline at end of file
+}
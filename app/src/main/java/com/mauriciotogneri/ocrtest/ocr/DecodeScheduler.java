@@ -0,0 +1,238 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.os.Handler;
+
+import com.mauriciotogneri.ocrtest.R;
+import com.mauriciotogneri.ocrtest.camera.CameraManager;
+import com.mauriciotogneri.ocrtest.camera.PreviewFrameListener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Feeds preview frames to the decode thread for continuous recognition, keeping only the freshest
+ * frame. A frame that arrives while another one is still waiting replaces it, and the decode thread
+ * picks up the next frame as soon as a decode finishes, without waiting for the UI thread.
+ * <p>
+ * Frames taken from the scheduler may be recognized concurrently by several OCR engines. Their
+ * results are delivered latest-first: a result that completes after a newer frame's result has been
+ * delivered is stale.
+ */
+final class DecodeScheduler implements PreviewFrameListener
+{
+    private final CameraManager cameraManager;
+    private final AtomicReference<byte[]> pendingFrame;
+    private final AtomicInteger decodesInFlight;
+    private final AtomicLong droppedCount;
+    private final AtomicLong supersededCount;
+    private final AtomicLong processedCount;
+    private final AtomicLong staleCount;
+    private final Object resultLock;
+    private long lastDeliveredSequence;
+    private volatile Handler decodeHandler;
+    private volatile int maxDecodesInFlight;
+    private volatile boolean active;
+    private volatile int frameWidth;
+    private volatile int frameHeight;
+
+    DecodeScheduler(CameraManager cameraManager)
+    {
+        this.cameraManager = cameraManager;
+        this.pendingFrame = new AtomicReference<byte[]>();
+        this.decodesInFlight = new AtomicInteger();
+        this.droppedCount = new AtomicLong();
+        this.supersededCount = new AtomicLong();
+        this.processedCount = new AtomicLong();
+        this.staleCount = new AtomicLong();
+        this.resultLock = new Object();
+    }
+
+    /**
+     * Starts accepting frames. Decodes are requested by sending {@link R.id#ocr_continuous_decode}
+     * to the given handler, which must then call {@link #takeFrame()} and, once the frame has been
+     * recognized or skipped, {@link #onDecodeFinished(boolean)}.
+     *
+     * @param maxDecodesInFlight Number of frames that may be taken but not yet finished.
+     */
+    void start(Handler decodeHandler, int maxDecodesInFlight)
+    {
+        this.decodeHandler = decodeHandler;
+        this.maxDecodesInFlight = Math.max(1, maxDecodesInFlight);
+        active = true;
+        scheduleDecode();
+    }
+
+    /**
+     * Stops accepting frames and gives the pending one, if any, back to the camera.
+     */
+    void pause()
+    {
+        active = false;
+        releaseFrame(pendingFrame.getAndSet(null));
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, int width, int height)
+    {
+        if (!active)
+        {
+            droppedCount.incrementAndGet();
+            releaseFrame(data);
+            return;
+        }
+
+        frameWidth = width;
+        frameHeight = height;
+
+        byte[] previous = pendingFrame.getAndSet(data);
+
+        if (previous != null)
+        {
+            supersededCount.incrementAndGet();
+            releaseFrame(previous);
+        }
+
+        if (!active)
+        {
+            // Paused while the frame was stored, possibly after pause() drained the pending frame;
+            // whichever of the two takes it out gives it back
+            byte[] parked = pendingFrame.getAndSet(null);
+
+            if (parked != null)
+            {
+                droppedCount.incrementAndGet();
+                releaseFrame(parked);
+            }
+
+            return;
+        }
+
+        scheduleDecode();
+    }
+
+    /**
+     * @return The freshest frame, or null if there is none. The caller owns the frame and must
+     * release it through the camera manager.
+     */
+    byte[] takeFrame()
+    {
+        return active ? pendingFrame.getAndSet(null) : null;
+    }
+
+    int getFrameWidth()
+    {
+        return frameWidth;
+    }
+
+    int getFrameHeight()
+    {
+        return frameHeight;
+    }
+
+    /**
+     * Called by the decode thread after each {@link #takeFrame()}, so that the next frame, if one
+     * has arrived meanwhile, is decoded immediately.
+     *
+     * @param processed True if a frame was taken and decoded.
+     */
+    void onDecodeFinished(boolean processed)
+    {
+        if (processed)
+        {
+            processedCount.incrementAndGet();
+        }
+
+        decodesInFlight.decrementAndGet();
+        scheduleDecode();
+    }
+
+    /**
+     * Decides whether the result of the given frame should still be shown.
+     *
+     * @param sequence Increasing number assigned to the frame when it was taken.
+     * @return False if the result of a newer frame has already been delivered.
+     */
+    boolean isLatestResult(long sequence)
+    {
+        synchronized (resultLock)
+        {
+            if (sequence < lastDeliveredSequence)
+            {
+                staleCount.incrementAndGet();
+                return false;
+            }
+
+            lastDeliveredSequence = sequence;
+            return true;
+        }
+    }
+
+    private void scheduleDecode()
+    {
+        Handler handler = decodeHandler;
+
+        while (active && (handler != null) && (pendingFrame.get() != null))
+        {
+            int inFlight = decodesInFlight.get();
+
+            if (inFlight >= maxDecodesInFlight)
+            {
+                return;
+            }
+
+            if (decodesInFlight.compareAndSet(inFlight, inFlight + 1))
+            {
+                handler.sendEmptyMessage(R.id.ocr_continuous_decode);
+                return;
+            }
+        }
+    }
+
+    private void releaseFrame(byte[] data)
+    {
+        if (data != null)
+        {
+            cameraManager.releasePreviewBuffer(data);
+        }
+    }
+
+    /**
+     * @return Frames discarded because continuous decoding was paused.
+     */
+    long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return Frames replaced by a fresher frame before the decode thread picked them up.
+     */
+    long getSupersededCount()
+    {
+        return supersededCount.get();
+    }
+
+    /**
+     * @return Frames actually decoded.
+     */
+    long getProcessedCount()
+    {
+        return processedCount.get();
+    }
+
+    /**
+     * @return Frames recognized, but whose result arrived after a newer frame's result.
+     */
+    long getStaleCount()
+    {
+        return staleCount.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "processed " + processedCount.get() + " superseded " + supersededCount.get()
+                + " dropped " + droppedCount.get() + " stale " + staleCount.get();
+    }
+}
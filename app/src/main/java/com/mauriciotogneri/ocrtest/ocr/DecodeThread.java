@@ -13,12 +13,24 @@ import java.util.concurrent.CountDownLatch;
 public class DecodeThread extends Thread
 {
     private final CaptureActivity activity;
+    private final DecodeScheduler scheduler;
+    private final OcrPipeline pipeline;
+    private final FramePreprocessor preprocessor;
+    private final ResolutionLadder ladder;
     private Handler handler;
     private final CountDownLatch handlerInitLatch;
 
-    public DecodeThread(CaptureActivity activity)
+    DecodeThread(CaptureActivity activity,
+                 DecodeScheduler scheduler,
+                 OcrPipeline pipeline,
+                 FramePreprocessor preprocessor,
+                 ResolutionLadder ladder)
     {
         this.activity = activity;
+        this.scheduler = scheduler;
+        this.pipeline = pipeline;
+        this.preprocessor = preprocessor;
+        this.ladder = ladder;
         this.handlerInitLatch = new CountDownLatch(1);
     }
 
@@ -40,7 +52,7 @@ public class DecodeThread extends Thread
     public void run()
     {
         Looper.prepare();
-        handler = new DecodeHandler(activity);
+        handler = new DecodeHandler(activity, scheduler, pipeline, preprocessor, ladder);
         handlerInitLatch.countDown();
         Looper.loop();
     }
@@ -0,0 +1,511 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.graphics.Rect;
+
+import java.util.Locale;
+
+/**
+ * Finds the horizontal text band most likely to hold the number, so that only that band, plus a
+ * margin, is handed to Tesseract instead of the whole framing rectangle. Tesseract time grows with
+ * the image area, and the number line is a small part of it.
+ * <p>
+ * The region is divided into small square cells, and cells with a strong horizontal gradient are
+ * marked. Marked cells of a row separated by short gaps, like the spaces between digits or digit
+ * groups, are bridged, and the connected components of the marked cells are collected.
+ * <p>
+ * Every component with the shape of a text line is scored for how much it looks like the number.
+ * Digits are printed at a near-uniform pitch, so the column ink profile of a digit line repeats
+ * itself: its autocorrelation has a strong peak at the pitch. The pitch also gives the number of
+ * characters across the line, which should be close to the number length. The component with the
+ * best score wins, but only if it scores well enough and clearly ahead of the runner-up; otherwise
+ * no band is reported, and the whole framing rectangle is recognized instead. A horizontal gradient
+ * projection inside the winner then trims its top and bottom to the rows that actually hold strokes.
+ * <p>
+ * Uses preallocated arrays and must only be called from one thread, the decode thread.
+ */
+final class DigitLineLocator
+{
+    /**
+     * Rough number of cell columns across the region.
+     */
+    private static final int TARGET_COLUMNS = 160;
+
+    /**
+     * Share of the strongest row below which rows at the top and bottom of the band are trimmed.
+     */
+    private static final float PROJECTION_TRIM = 0.2f;
+
+    /**
+     * Shortest run of marked cells kept in a row. Shorter runs are vertical edges of shapes other
+     * than text, which would otherwise join the text line to whatever is above or below it.
+     */
+    private static final int MIN_RUN_CELLS = 4;
+
+    /**
+     * Range of character pitches looked for, as a share of the line height.
+     */
+    private static final float MIN_PITCH = 0.5f;
+    private static final float MAX_PITCH = 1.2f;
+
+    private final int minCellGradient;
+    private final int maxGapCells;
+    private final float minAspectRatio;
+    private final float margin;
+    private final int expectedLength;
+    private final float minScore;
+    private final float minLead;
+
+    private int[] cellEnergy;
+    private int[] labels;
+    private int[] stack;
+    private int[] rowProjection;
+    private int[] columnProfile;
+
+    private long locatedCount;
+    private long missedCount;
+    private long ambiguousCount;
+    private long totalNanos;
+    private long totalAreaRatio;
+
+    /**
+     * @param minCellGradient Minimum mean horizontal luminance step in a cell for it to be marked.
+     * @param maxGapCells     Longest run of unmarked cells in a row that is bridged.
+     * @param minAspectRatio  Minimum width to height ratio of a text line.
+     * @param margin          Margin added around the band, as a share of its height.
+     * @param expectedLength  Number of characters expected across the line.
+     * @param minScore        Lowest score, from 0 to 1, of a line that is reported.
+     * @param minLead         Lowest ratio of the best score to the second best for the best line to
+     *                        be reported.
+     */
+    DigitLineLocator(int minCellGradient, int maxGapCells, float minAspectRatio, float margin,
+                     int expectedLength, float minScore, float minLead)
+    {
+        this.minCellGradient = minCellGradient;
+        this.maxGapCells = maxGapCells;
+        this.minAspectRatio = minAspectRatio;
+        this.margin = margin;
+        this.expectedLength = expectedLength;
+        this.minScore = minScore;
+        this.minLead = minLead;
+        this.cellEnergy = new int[0];
+        this.labels = new int[0];
+        this.stack = new int[0];
+        this.rowProjection = new int[0];
+        this.columnProfile = new int[0];
+    }
+
+    /**
+     * @param band Receives the band, with margin, relative to the analyzed image.
+     * @return False if no text band was found.
+     */
+    boolean locate(FrameAnalysis analysis, Rect band)
+    {
+        long start = System.nanoTime();
+        int width = analysis.getWidth();
+        int height = analysis.getHeight();
+        boolean located = findBand(analysis.getData(), analysis.getOffset(), analysis.getStride(), width, height, band);
+
+        synchronized (this)
+        {
+            totalNanos += System.nanoTime() - start;
+
+            if (located)
+            {
+                locatedCount++;
+                totalAreaRatio += (1000L * band.width() * band.height()) / ((long) width * height);
+            }
+            else
+            {
+                missedCount++;
+            }
+        }
+
+        return located;
+    }
+
+    private boolean findBand(byte[] data, int offset, int stride, int width, int height, Rect band)
+    {
+        int cell = Math.max(2, width / TARGET_COLUMNS);
+        int columns = width / cell;
+        int rows = height / cell;
+
+        if (columns < 2 || rows < 1)
+        {
+            return false;
+        }
+
+        int cells = columns * rows;
+        ensureCapacity(cells, width, height);
+
+        computeCellEnergy(data, offset, stride, cell, columns, rows);
+
+        // Mark cells with a strong gradient and bridge short gaps along each row
+        int threshold = minCellGradient * cell * ((cell + 1) / 2);
+
+        for (int r = 0; r < rows; r++)
+        {
+            int lastMarked = -1;
+
+            for (int c = 0; c < columns; c++)
+            {
+                int index = r * columns + c;
+
+                if (cellEnergy[index] >= threshold)
+                {
+                    if (lastMarked >= 0 && c - lastMarked - 1 <= maxGapCells)
+                    {
+                        for (int g = lastMarked + 1; g < c; g++)
+                        {
+                            labels[r * columns + g] = -1;
+                        }
+                    }
+
+                    labels[index] = -1;
+                    lastMarked = c;
+                }
+                else
+                {
+                    labels[index] = 0;
+                }
+            }
+
+            removeShortRuns(r * columns, columns);
+        }
+
+        // Connected components of the marked cells; keep the line-shaped one that looks most like the
+        // number
+        float bestScore = -1f;
+        float secondScore = 0f;
+        int bestLeft = 0;
+        int bestTop = 0;
+        int bestRight = 0;
+        int bestBottom = 0;
+        int label = 0;
+
+        for (int seed = 0; seed < cells; seed++)
+        {
+            if (labels[seed] != -1)
+            {
+                continue;
+            }
+
+            label++;
+            int left = columns;
+            int top = rows;
+            int right = -1;
+            int bottom = -1;
+            int size = 0;
+
+            stack[size++] = seed;
+            labels[seed] = label;
+
+            while (size > 0)
+            {
+                int index = stack[--size];
+                int r = index / columns;
+                int c = index - r * columns;
+
+                left = Math.min(left, c);
+                right = Math.max(right, c);
+                top = Math.min(top, r);
+                bottom = Math.max(bottom, r);
+
+                if (c > 0 && labels[index - 1] == -1)
+                {
+                    labels[index - 1] = label;
+                    stack[size++] = index - 1;
+                }
+                if (c < columns - 1 && labels[index + 1] == -1)
+                {
+                    labels[index + 1] = label;
+                    stack[size++] = index + 1;
+                }
+                if (r > 0 && labels[index - columns] == -1)
+                {
+                    labels[index - columns] = label;
+                    stack[size++] = index - columns;
+                }
+                if (r < rows - 1 && labels[index + columns] == -1)
+                {
+                    labels[index + columns] = label;
+                    stack[size++] = index + columns;
+                }
+            }
+
+            int componentWidth = right - left + 1;
+            int componentHeight = bottom - top + 1;
+
+            if (componentWidth < minAspectRatio * componentHeight)
+            {
+                continue;
+            }
+
+            float score = scoreLine(data, offset, stride, left * cell, top * cell, (right + 1) * cell, (bottom + 1) * cell);
+
+            if (score > bestScore)
+            {
+                secondScore = Math.max(secondScore, bestScore);
+                bestScore = score;
+                bestLeft = left;
+                bestTop = top;
+                bestRight = right;
+                bestBottom = bottom;
+            }
+            else
+            {
+                secondScore = Math.max(secondScore, score);
+            }
+        }
+
+        if (bestScore < 0f)
+        {
+            return false;
+        }
+
+        if (bestScore < minScore || bestScore < minLead * secondScore)
+        {
+            synchronized (this)
+            {
+                ambiguousCount++;
+            }
+
+            return false;
+        }
+
+        int left = bestLeft * cell;
+        int right = (bestRight + 1) * cell;
+        int top = bestTop * cell;
+        int bottom = (bestBottom + 1) * cell;
+
+        // Horizontal gradient projection to trim rows without strokes
+        int strongest = 0;
+
+        for (int y = top; y < bottom; y++)
+        {
+            int rowOffset = offset + y * stride;
+            int sum = 0;
+
+            for (int x = left + 1; x < right; x++)
+            {
+                sum += Math.abs((data[rowOffset + x] & 0xff) - (data[rowOffset + x - 1] & 0xff));
+            }
+
+            rowProjection[y] = sum;
+            strongest = Math.max(strongest, sum);
+        }
+
+        int trim = (int) (strongest * PROJECTION_TRIM);
+
+        while (top < bottom - 1 && rowProjection[top] < trim)
+        {
+            top++;
+        }
+
+        while (bottom - 1 > top && rowProjection[bottom - 1] < trim)
+        {
+            bottom--;
+        }
+
+        int pad = Math.max(cell, (int) ((bottom - top) * margin));
+
+        band.set(Math.max(0, left - pad),
+                 Math.max(0, top - pad),
+                 Math.min(width, right + pad),
+                 Math.min(height, bottom + pad));
+
+        return true;
+    }
+
+    /**
+     * Scores how much a line looks like the number: the strength of the repetition of its column
+     * ink profile at the character pitch, times how close the number of characters that the pitch
+     * gives is to the expected length.
+     *
+     * @return The score, from 0 to 1.
+     */
+    private float scoreLine(byte[] data, int offset, int stride, int left, int top, int right, int bottom)
+    {
+        int width = right - left;
+        int height = bottom - top;
+        long total = 0;
+        int samples = 0;
+
+        for (int y = top; y < bottom; y += 2)
+        {
+            int rowOffset = offset + y * stride;
+
+            for (int x = left; x < right; x++)
+            {
+                total += data[rowOffset + x] & 0xff;
+            }
+
+            samples += width;
+        }
+
+        int mean = (int) (total / samples);
+        long profileSum = 0;
+
+        // Ink per column, as the distance from the mean luminance, so dark and light text both work
+        for (int x = left; x < right; x++)
+        {
+            int ink = 0;
+
+            for (int y = top; y < bottom; y += 2)
+            {
+                ink += Math.abs((data[offset + y * stride + x] & 0xff) - mean);
+            }
+
+            columnProfile[x - left] = ink;
+            profileSum += ink;
+        }
+
+        int profileMean = (int) (profileSum / width);
+        long energy = 0;
+
+        for (int x = 0; x < width; x++)
+        {
+            columnProfile[x] -= profileMean;
+            energy += (long) columnProfile[x] * columnProfile[x];
+        }
+
+        int minLag = Math.max(2, (int) (height * MIN_PITCH));
+        int maxLag = Math.min(width / 4, (int) (height * MAX_PITCH) + 1);
+
+        if (energy == 0 || minLag >= maxLag)
+        {
+            return 0f;
+        }
+
+        // Strongest local peak of the normalized autocorrelation within the pitch range
+        float bestCorrelation = 0f;
+        int pitch = 0;
+        float previous = autocorrelation(width, minLag - 1, energy);
+        float current = autocorrelation(width, minLag, energy);
+
+        for (int lag = minLag; lag < maxLag; lag++)
+        {
+            float next = autocorrelation(width, lag + 1, energy);
+
+            if (current >= previous && current >= next && current > bestCorrelation)
+            {
+                bestCorrelation = current;
+                pitch = lag;
+            }
+
+            previous = current;
+            current = next;
+        }
+
+        if (pitch == 0)
+        {
+            return 0f;
+        }
+
+        float lengthRatio = (float) width / pitch / expectedLength;
+
+        return bestCorrelation * Math.min(lengthRatio, 1f / lengthRatio);
+    }
+
+    private float autocorrelation(int width, int lag, long energy)
+    {
+        long sum = 0;
+
+        for (int x = 0; x + lag < width; x++)
+        {
+            sum += (long) columnProfile[x] * columnProfile[x + lag];
+        }
+
+        // Scaled up for the shorter overlap at longer lags
+        return (float) ((double) sum / energy * width / (width - lag));
+    }
+
+    private void removeShortRuns(int rowStart, int columns)
+    {
+        int runStart = -1;
+
+        for (int c = 0; c <= columns; c++)
+        {
+            boolean isMarked = (c < columns) && (labels[rowStart + c] == -1);
+
+            if (isMarked && runStart < 0)
+            {
+                runStart = c;
+            }
+            else if (!isMarked && runStart >= 0)
+            {
+                if (c - runStart < MIN_RUN_CELLS)
+                {
+                    for (int i = runStart; i < c; i++)
+                    {
+                        labels[rowStart + i] = 0;
+                    }
+                }
+
+                runStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Sums the absolute horizontal luminance steps in every cell, reading every other row.
+     */
+    private void computeCellEnergy(byte[] data, int offset, int stride, int cell, int columns, int rows)
+    {
+        for (int i = 0; i < columns * rows; i++)
+        {
+            cellEnergy[i] = 0;
+        }
+
+        int width = columns * cell;
+
+        for (int r = 0; r < rows; r++)
+        {
+            int cellRow = r * columns;
+
+            for (int y = r * cell; y < (r + 1) * cell; y += 2)
+            {
+                int rowOffset = offset + y * stride;
+                int previous = data[rowOffset] & 0xff;
+
+                for (int x = 1; x < width; x++)
+                {
+                    int current = data[rowOffset + x] & 0xff;
+                    cellEnergy[cellRow + x / cell] += Math.abs(current - previous);
+                    previous = current;
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int cells, int width, int height)
+    {
+        if (cellEnergy.length < cells)
+        {
+            cellEnergy = new int[cells];
+            labels = new int[cells];
+            stack = new int[cells];
+        }
+
+        if (rowProjection.length < height)
+        {
+            rowProjection = new int[height];
+        }
+
+        if (columnProfile.length < width)
+        {
+            columnProfile = new int[width];
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        long count = locatedCount + missedCount;
+        return String.format(Locale.US, "located %d, missed %d (%d ambiguous), %.1f%% of the area, %.3f ms avg",
+                             locatedCount,
+                             missedCount,
+                             ambiguousCount,
+                             (locatedCount > 0) ? totalAreaRatio / 10.0 / locatedCount : 0.0,
+                             (count > 0) ? totalNanos / 1e6 / count : 0.0);
+    }
+}
@@ -0,0 +1,310 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+/**
+ * Finds digit sequences of a target length in OCR text in a single pass, without allocating. Digits
+ * may be printed in groups, as in {@code 1234 5678 ...}: groups separated by a short run of
+ * separator characters are joined. When a run of groups is longer than the target, the first window
+ * of whole groups with exactly the target number of digits is reported.
+ * <p>
+ * Each match also reports the index of its first and last word, counting whitespace-separated
+ * words from the start of the text. Those indices match Tesseract's word confidences and word
+ * bounding boxes.
+ */
+public final class DigitSequenceScanner
+{
+    private final int length;
+    private final String separators;
+    private final int maxSeparatorRun;
+
+    // Window of consecutive digit groups, as a ring
+    private final int[] groupStarts;
+    private final int[] groupEnds;
+    private final int[] groupWords;
+    private int groupHead;
+    private int groupCount;
+    private int runDigits;
+
+    private final Digits digits;
+    private CharSequence text;
+    private int position;
+    private int word;
+    private boolean isInWord;
+
+    private int matchStart;
+    private int matchEnd;
+    private int matchFirstWord;
+    private int matchLastWord;
+
+    /**
+     * @param length          Number of digits to look for. Runs one digit shorter or longer are
+     *                        reported too, so that callers can align them.
+     * @param separators      Characters allowed between digit groups.
+     * @param maxSeparatorRun Maximum number of consecutive separators between two groups.
+     */
+    public DigitSequenceScanner(int length, String separators, int maxSeparatorRun)
+    {
+        this.length = length;
+        this.separators = separators;
+        this.maxSeparatorRun = maxSeparatorRun;
+        this.groupStarts = new int[length + 2];
+        this.groupEnds = new int[length + 2];
+        this.groupWords = new int[length + 2];
+        this.digits = new Digits(length + 1);
+    }
+
+    /**
+     * Starts scanning the given text from the beginning.
+     */
+    public void reset(CharSequence text)
+    {
+        this.text = text;
+        this.position = 0;
+        this.word = -1;
+        this.isInWord = false;
+    }
+
+    /**
+     * Advances to the next match.
+     *
+     * @return False if there are no more matches in the text.
+     */
+    public boolean next()
+    {
+        int n = text.length();
+
+        while (position < n)
+        {
+            // Skip to the start of the next digit run
+            while (position < n && !isDigit(text.charAt(position)))
+            {
+                consume();
+            }
+
+            if (position >= n)
+            {
+                return false;
+            }
+
+            groupHead = 0;
+            groupCount = 0;
+            runDigits = 0;
+
+            while (true)
+            {
+                int start = position;
+                int startWord = isInWord ? word : word + 1;
+
+                while (position < n && isDigit(text.charAt(position)))
+                {
+                    consume();
+                }
+
+                addGroup(start, position, startWord);
+
+                int windowGroups = findExactWindow();
+
+                if (windowGroups > 0)
+                {
+                    setMatch(groupCount - windowGroups, windowGroups);
+                    return true;
+                }
+
+                int separatorStart = position;
+
+                while (position < n && separators.indexOf(text.charAt(position)) >= 0
+                        && position - separatorStart <= maxSeparatorRun)
+                {
+                    consume();
+                }
+
+                int separatorRun = position - separatorStart;
+
+                if (separatorRun == 0 || separatorRun > maxSeparatorRun
+                        || position >= n || !isDigit(text.charAt(position)))
+                {
+                    break;
+                }
+            }
+
+            // A run with one digit too few or too many holds few enough groups to still be in the ring
+            if (Math.abs(runDigits - length) == 1)
+            {
+                setMatch(0, groupCount);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The digits of the current match, without separators. Valid until the next call to
+     * {@link #next()}.
+     */
+    public CharSequence getDigits()
+    {
+        return digits;
+    }
+
+    /**
+     * @return Index in the text of the first digit of the current match.
+     */
+    public int getStart()
+    {
+        return matchStart;
+    }
+
+    /**
+     * @return Index in the text after the last digit of the current match.
+     */
+    public int getEnd()
+    {
+        return matchEnd;
+    }
+
+    /**
+     * @return Index of the word holding the first digit of the current match.
+     */
+    public int getFirstWord()
+    {
+        return matchFirstWord;
+    }
+
+    /**
+     * @return Index of the word holding the last digit of the current match.
+     */
+    public int getLastWord()
+    {
+        return matchLastWord;
+    }
+
+    private void consume()
+    {
+        boolean isSpace = Character.isWhitespace(text.charAt(position));
+
+        if (!isSpace && !isInWord)
+        {
+            word++;
+        }
+
+        isInWord = !isSpace;
+        position++;
+    }
+
+    private void addGroup(int start, int end, int groupWord)
+    {
+        int capacity = groupStarts.length;
+
+        if (groupCount == capacity)
+        {
+            // Only the newest groups can still end an exact match
+            groupHead = (groupHead + 1) % capacity;
+            groupCount--;
+        }
+
+        int slot = (groupHead + groupCount) % capacity;
+        groupStarts[slot] = start;
+        groupEnds[slot] = end;
+        groupWords[slot] = groupWord;
+        groupCount++;
+        runDigits += end - start;
+    }
+
+    /**
+     * @return Number of newest groups that together hold exactly the target number of digits, or 0.
+     */
+    private int findExactWindow()
+    {
+        int capacity = groupStarts.length;
+        int sum = 0;
+
+        for (int g = groupCount - 1; g >= 0; g--)
+        {
+            int slot = (groupHead + g) % capacity;
+            sum += groupEnds[slot] - groupStarts[slot];
+
+            if (sum == length)
+            {
+                return groupCount - g;
+            }
+
+            if (sum > length)
+            {
+                return 0;
+            }
+        }
+
+        return 0;
+    }
+
+    private void setMatch(int first, int count)
+    {
+        int capacity = groupStarts.length;
+        int firstSlot = (groupHead + first) % capacity;
+        int lastSlot = (groupHead + first + count - 1) % capacity;
+
+        matchStart = groupStarts[firstSlot];
+        matchEnd = groupEnds[lastSlot];
+        matchFirstWord = groupWords[firstSlot];
+        matchLastWord = groupWords[lastSlot];
+
+        digits.count = 0;
+
+        for (int g = first; g < first + count; g++)
+        {
+            int slot = (groupHead + g) % capacity;
+
+            for (int i = groupStarts[slot]; i < groupEnds[slot]; i++)
+            {
+                digits.chars[digits.count++] = text.charAt(i);
+            }
+        }
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Reusable view over the digits of the current match.
+     */
+    private static final class Digits implements CharSequence
+    {
+        private final char[] chars;
+        private int count;
+
+        private Digits(int capacity)
+        {
+            this.chars = new char[capacity];
+        }
+
+        @Override
+        public int length()
+        {
+            return count;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            if (index < 0 || index >= count)
+            {
+                throw new IndexOutOfBoundsException();
+            }
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(chars, 0, count);
+        }
+    }
+}
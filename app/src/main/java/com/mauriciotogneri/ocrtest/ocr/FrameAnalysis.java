@@ -0,0 +1,303 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+/**
+ * Derived images of one greyscale image, shared by the preprocessing stages so that each is
+ * computed at most once per frame: a 2x and 4x box-filtered pyramid, a luminance histogram, and an
+ * integral and squared integral image. Everything is built lazily, on the first request after
+ * {@link #reset}, into buffers that are reused from frame to frame.
+ * <p>
+ * The pyramid and histogram buffers are allocated up front for the given capacity, normally the
+ * preview resolution. The integral images, several megabytes at full resolution, are allocated the
+ * first time a stage asks for them. Either way buffers only grow, so the steady state allocates
+ * nothing.
+ * <p>
+ * Not thread-safe; owned by the decode thread.
+ */
+final class FrameAnalysis
+{
+    /**
+     * Number of pyramid levels above the image itself: 2x and 4x.
+     */
+    static final int LEVELS = 2;
+
+    private byte[] data;
+    private int offset;
+    private int stride;
+    private int width;
+    private int height;
+
+    private final byte[][] levels;
+    private final int[] histogram;
+    private int[] integral;
+    private long[] squaredIntegral;
+    private int minimum;
+
+    private final boolean[] isLevelBuilt;
+    private boolean isHistogramBuilt;
+    private boolean isIntegralBuilt;
+
+    FrameAnalysis(int capacityWidth, int capacityHeight)
+    {
+        this.levels = new byte[LEVELS + 1][];
+        this.isLevelBuilt = new boolean[LEVELS + 1];
+
+        for (int level = 1; level <= LEVELS; level++)
+        {
+            levels[level] = new byte[(capacityWidth >> level) * (capacityHeight >> level)];
+        }
+
+        this.histogram = new int[256];
+        this.integral = new int[0];
+        this.squaredIntegral = new long[0];
+    }
+
+    /**
+     * Starts the analysis of a new image, or of the same buffer after it was modified.
+     *
+     * @param data   Buffer holding the image, one byte per pixel.
+     * @param offset Index in the buffer of the top left pixel.
+     * @param stride Distance in the buffer between two rows.
+     */
+    void reset(byte[] data, int offset, int stride, int width, int height)
+    {
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+
+        for (int level = 0; level <= LEVELS; level++)
+        {
+            isLevelBuilt[level] = (level == 0);
+        }
+
+        isHistogramBuilt = false;
+        isIntegralBuilt = false;
+    }
+
+    /**
+     * Forgets everything derived from the image, after its pixels were changed in place.
+     */
+    void invalidate()
+    {
+        reset(data, offset, stride, width, height);
+    }
+
+    byte[] getData()
+    {
+        return data;
+    }
+
+    int getOffset()
+    {
+        return offset;
+    }
+
+    int getStride()
+    {
+        return stride;
+    }
+
+    int getWidth()
+    {
+        return width;
+    }
+
+    int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * @param level 0 for the image itself, 1 for half and 2 for quarter resolution.
+     * @return Buffer holding the level, which starts at {@link #getLevelOffset(int)}.
+     */
+    byte[] getLevel(int level)
+    {
+        buildLevel(level);
+        return (level == 0) ? data : levels[level];
+    }
+
+    int getLevelOffset(int level)
+    {
+        return (level == 0) ? offset : 0;
+    }
+
+    int getLevelStride(int level)
+    {
+        return (level == 0) ? stride : getLevelWidth(level);
+    }
+
+    int getLevelWidth(int level)
+    {
+        return width >> level;
+    }
+
+    int getLevelHeight(int level)
+    {
+        return height >> level;
+    }
+
+    /**
+     * @return Highest pyramid level no wider than the given width, or the top level.
+     */
+    int getLevelForWidth(int maxWidth)
+    {
+        int level = 0;
+
+        while (level < LEVELS && getLevelWidth(level) > maxWidth)
+        {
+            level++;
+        }
+
+        return level;
+    }
+
+    /**
+     * @return Luminance histogram of the half-resolution level, 256 bins.
+     */
+    int[] getHistogram()
+    {
+        if (!isHistogramBuilt)
+        {
+            byte[] level = getLevel(1);
+            int count = getLevelWidth(1) * getLevelHeight(1);
+
+            for (int i = 0; i < histogram.length; i++)
+            {
+                histogram[i] = 0;
+            }
+
+            for (int i = 0; i < count; i++)
+            {
+                histogram[level[i] & 0xff]++;
+            }
+
+            isHistogramBuilt = true;
+        }
+
+        return histogram;
+    }
+
+    /**
+     * @return Number of pixels counted by {@link #getHistogram()}.
+     */
+    int getHistogramCount()
+    {
+        return getLevelWidth(1) * getLevelHeight(1);
+    }
+
+    /**
+     * @return Integral image of the full-resolution image, (width + 1) * (height + 1) entries with
+     * a leading row and column of zeros.
+     */
+    int[] getIntegral()
+    {
+        buildIntegral();
+        return integral;
+    }
+
+    /**
+     * @return Integral image of the squared luminance, laid out like {@link #getIntegral()}.
+     */
+    long[] getSquaredIntegral()
+    {
+        buildIntegral();
+        return squaredIntegral;
+    }
+
+    /**
+     * @return Darkest luminance of the full-resolution image.
+     */
+    int getMinimum()
+    {
+        buildIntegral();
+        return minimum;
+    }
+
+    private void buildLevel(int level)
+    {
+        if (isLevelBuilt[level])
+        {
+            return;
+        }
+
+        byte[] source = getLevel(level - 1);
+        int sourceOffset = getLevelOffset(level - 1);
+        int sourceStride = getLevelStride(level - 1);
+        int levelWidth = getLevelWidth(level);
+        int levelHeight = getLevelHeight(level);
+
+        if (levels[level].length < levelWidth * levelHeight)
+        {
+            levels[level] = new byte[levelWidth * levelHeight];
+        }
+
+        byte[] target = levels[level];
+
+        for (int y = 0; y < levelHeight; y++)
+        {
+            int top = sourceOffset + 2 * y * sourceStride;
+            int bottom = top + sourceStride;
+            int row = y * levelWidth;
+
+            for (int x = 0; x < levelWidth; x++)
+            {
+                int sum = (source[top + 2 * x] & 0xff) + (source[top + 2 * x + 1] & 0xff)
+                        + (source[bottom + 2 * x] & 0xff) + (source[bottom + 2 * x + 1] & 0xff);
+                target[row + x] = (byte) (sum >> 2);
+            }
+        }
+
+        isLevelBuilt[level] = true;
+    }
+
+    private void buildIntegral()
+    {
+        if (isIntegralBuilt)
+        {
+            return;
+        }
+
+        int size = (width + 1) * (height + 1);
+
+        if (integral.length < size)
+        {
+            integral = new int[size];
+            squaredIntegral = new long[size];
+        }
+
+        int integralStride = width + 1;
+        minimum = 255;
+
+        for (int x = 0; x <= width; x++)
+        {
+            integral[x] = 0;
+            squaredIntegral[x] = 0;
+        }
+
+        for (int y = 0; y < height; y++)
+        {
+            int rowSum = 0;
+            long rowSquaredSum = 0;
+            int above = y * integralStride;
+            int current = above + integralStride;
+            int row = offset + y * stride;
+
+            integral[current] = 0;
+            squaredIntegral[current] = 0;
+
+            for (int x = 0; x < width; x++)
+            {
+                int value = data[row + x] & 0xff;
+                minimum = Math.min(minimum, value);
+                rowSum += value;
+                rowSquaredSum += value * value;
+                integral[current + x + 1] = integral[above + x + 1] + rowSum;
+                squaredIntegral[current + x + 1] = squaredIntegral[above + x + 1] + rowSquaredSum;
+            }
+        }
+
+        isIntegralBuilt = true;
+    }
+}
@@ -0,0 +1,175 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.graphics.Rect;
+
+/**
+ * Decode thread part of the continuous pipeline: decides whether a preview frame is worth
+ * recognizing, and cuts out the part of it that Tesseract should see. Everything here works on the
+ * Y plane of the preview frame in place; only the final crop is copied.
+ * <p>
+ * The stages share two {@link FrameAnalysis} instances, reused for every frame: one for the framing
+ * rectangle of the preview frame, one for the cropped line handed to Tesseract.
+ * <p>
+ * Must only be used from the decode thread, except for the threshold setters of the quality gate.
+ */
+final class FramePreprocessor
+{
+    private final FrameQualityGate qualityGate;
+    private final TextLineDetector textLineDetector;
+    private final DigitLineLocator digitLineLocator;
+    private final SkewEstimator skewEstimator;
+    private final BandFusion bandFusion;
+    private final AdaptiveBinarizer binarizer;
+    private final FrameAnalysis frameAnalysis;
+    private final FrameAnalysis lineAnalysis;
+    private final Rect band;
+    private byte[] spareLuminance;
+
+    /**
+     * @param previewWidth  Width of the preview frames, to size the analysis buffers.
+     * @param previewHeight Height of the preview frames.
+     */
+    FramePreprocessor(int previewWidth, int previewHeight)
+    {
+        this.qualityGate = new FrameQualityGate(Configuration.DEFAULT_MIN_SHARPNESS,
+                                                Configuration.DEFAULT_MIN_MEAN_LUMINANCE,
+                                                Configuration.DEFAULT_MAX_MEAN_LUMINANCE,
+                                                Configuration.DEFAULT_MAX_CLIPPED_RATIO);
+        this.textLineDetector = new TextLineDetector(Configuration.DEFAULT_TEXT_EDGE_THRESHOLD,
+                                                     Configuration.DEFAULT_TEXT_MIN_ROW_EDGE_DENSITY,
+                                                     Configuration.DEFAULT_TEXT_MAX_EDGE_DENSITY,
+                                                     Configuration.DEFAULT_TEXT_MIN_LINE_HEIGHT,
+                                                     Configuration.DEFAULT_TEXT_MAX_LINE_HEIGHT);
+        this.digitLineLocator = new DigitLineLocator(Configuration.DEFAULT_LINE_MIN_CELL_GRADIENT,
+                                                     Configuration.DEFAULT_LINE_MAX_GAP_CELLS,
+                                                     Configuration.DEFAULT_LINE_MIN_ASPECT_RATIO,
+                                                     Configuration.DEFAULT_LINE_MARGIN,
+                                                     Configuration.DEFAULT_NUMBER_LENGTH,
+                                                     Configuration.DEFAULT_LINE_MIN_DIGIT_SCORE,
+                                                     Configuration.DEFAULT_LINE_MIN_SCORE_LEAD);
+        this.skewEstimator = new SkewEstimator(Configuration.DEFAULT_MAX_SKEW_ANGLE,
+                                               Configuration.DEFAULT_TEXT_EDGE_THRESHOLD);
+        this.bandFusion = (Configuration.DEFAULT_FUSION_FRAMES > 1 || Configuration.DEFAULT_FUSION_SCALE > 1)
+                ? new BandFusion(Configuration.DEFAULT_FUSION_FRAMES,
+                                 Configuration.DEFAULT_FUSION_METHOD,
+                                 Configuration.DEFAULT_FUSION_SCALE,
+                                 Configuration.DEFAULT_FUSION_MAX_AGE)
+                : null;
+        this.binarizer = (Configuration.DEFAULT_BINARIZATION_METHOD != null)
+                ? new AdaptiveBinarizer(Configuration.DEFAULT_BINARIZATION_METHOD,
+                                        Configuration.DEFAULT_BINARIZATION_WINDOW,
+                                        Configuration.DEFAULT_BINARIZATION_K,
+                                        Configuration.DEFAULT_BINARIZATION_MIN_PARALLEL_AREA,
+                                        Configuration.DEFAULT_BINARIZATION_THREADS)
+                : null;
+        this.frameAnalysis = new FrameAnalysis(previewWidth, previewHeight);
+        this.lineAnalysis = new FrameAnalysis(previewWidth, previewHeight);
+        this.band = new Rect();
+    }
+
+    /**
+     * Checks the frame and, if it should be recognized, copies the digit line into the given
+     * pipeline frame. A located line is straightened and recognized as a single line; otherwise
+     * the whole framing rectangle is recognized with automatic page segmentation. A located line is
+     * also fused with the lines of the previous frames. Either way the image is binarized with local
+     * thresholds before Tesseract sees it.
+     *
+     * @return False if the frame should not be recognized.
+     */
+    boolean process(PlanarYUVLuminanceSource source, PipelineFrame frame, long sequence)
+    {
+        source.analyze(frameAnalysis);
+
+        if ((qualityGate.evaluate(frameAnalysis) != FrameQualityGate.Verdict.ACCEPTED)
+                || !textLineDetector.detect(frameAnalysis))
+        {
+            return false;
+        }
+
+        if (!digitLineLocator.locate(frameAnalysis, band))
+        {
+            if (bandFusion != null)
+            {
+                // The following lines would not match the previous ones anyway
+                bandFusion.reset();
+            }
+
+            frame.set(source.renderCroppedGreyscale(frame.luminance), source.getWidth(), source.getHeight(), sequence);
+            frame.pageSegMode = Configuration.DEFAULT_FALLBACK_PAGE_SEGMENTATION_MODE;
+            lineAnalysis.reset(frame.luminance, 0, frame.width, frame.width, frame.height);
+            binarize();
+            return true;
+        }
+
+        PlanarYUVLuminanceSource line = source.crop(band.left, band.top, band.width(), band.height());
+        frame.set(line.renderCroppedGreyscale(frame.luminance), line.getWidth(), line.getHeight(), sequence);
+        frame.pageSegMode = Configuration.DEFAULT_PAGE_SEGMENTATION_MODE;
+        lineAnalysis.reset(frame.luminance, 0, frame.width, frame.width, frame.height);
+
+        float angle = skewEstimator.estimate(lineAnalysis);
+
+        if (Math.abs(angle) >= Configuration.DEFAULT_MIN_DESKEW_ANGLE)
+        {
+            byte[] straightened = skewEstimator.deskew(frame.luminance, frame.width, frame.height, angle, spareLuminance);
+            spareLuminance = frame.luminance;
+            frame.luminance = straightened;
+            lineAnalysis.reset(frame.luminance, 0, frame.width, frame.width, frame.height);
+        }
+
+        if (bandFusion != null)
+        {
+            byte[] fused = bandFusion.fuse(frame.luminance, frame.width, frame.height, spareLuminance);
+
+            if (fused != null)
+            {
+                spareLuminance = frame.luminance;
+                frame.luminance = fused;
+                frame.width = bandFusion.getFusedWidth();
+                frame.height = bandFusion.getFusedHeight();
+                lineAnalysis.reset(frame.luminance, 0, frame.width, frame.width, frame.height);
+            }
+        }
+
+        binarize();
+        return true;
+    }
+
+    private void binarize()
+    {
+        if (binarizer != null)
+        {
+            binarizer.binarize(lineAnalysis);
+        }
+    }
+
+    /**
+     * Stops any helper threads. Frames processed afterwards still work, on the calling thread only.
+     */
+    void shutdown()
+    {
+        if (binarizer != null)
+        {
+            binarizer.shutdown();
+        }
+    }
+
+    /**
+     * @return The gate deciding which frames are worth recognizing; its thresholds can be adjusted
+     * while decoding runs.
+     */
+    FrameQualityGate getQualityGate()
+    {
+        return qualityGate;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "quality gate: " + qualityGate
+                + "; text line detector: " + textLineDetector
+                + "; digit line locator: " + digitLineLocator
+                + "; skew estimator: " + skewEstimator
+                + "; band fusion: " + bandFusion
+                + "; binarizer: " + binarizer;
+    }
+}
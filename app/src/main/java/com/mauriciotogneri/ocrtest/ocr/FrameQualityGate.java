@@ -0,0 +1,247 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cheap check of the Y plane inside the framing rectangle, run before a frame is handed to
+ * Tesseract. Frames blurred while the camera refocuses, or too dark or blown out to read, would
+ * only cost a full recognition and fail, so they are rejected here instead.
+ * <p>
+ * Sharpness is the variance of the Laplacian of the half-resolution pyramid level, sampled on a
+ * sparse grid. Exposure comes from the histogram of the same level: the mean luminance and the
+ * share of clipped pixels. Both come from the shared {@link FrameAnalysis}.
+ * <p>
+ * Thresholds can be changed at any time from any thread. {@link #evaluate} must only be called
+ * from one thread, the decode thread.
+ */
+final class FrameQualityGate
+{
+    enum Verdict
+    {
+        ACCEPTED,
+        BLURRED,
+        TOO_DARK,
+        TOO_BRIGHT,
+        CLIPPED
+    }
+
+    /**
+     * Rough number of pixels sampled for sharpness, whatever the size of the framing rectangle.
+     */
+    private static final int TARGET_SAMPLES = 16 * 1024;
+
+    private static final int CLIPPED_LOW = 5;
+    private static final int CLIPPED_HIGH = 250;
+
+    private volatile float minSharpness;
+    private volatile int minMeanLuminance;
+    private volatile int maxMeanLuminance;
+    private volatile float maxClippedRatio;
+
+    private final AtomicLongArray verdictCounts;
+    private volatile float lastSharpness;
+    private volatile int lastMeanLuminance;
+    private volatile float lastClippedRatio;
+    private long totalNanos;
+    private long evaluationCount;
+
+    FrameQualityGate(float minSharpness, int minMeanLuminance, int maxMeanLuminance, float maxClippedRatio)
+    {
+        this.minSharpness = minSharpness;
+        this.minMeanLuminance = minMeanLuminance;
+        this.maxMeanLuminance = maxMeanLuminance;
+        this.maxClippedRatio = maxClippedRatio;
+        this.verdictCounts = new AtomicLongArray(Verdict.values().length);
+    }
+
+    Verdict evaluate(FrameAnalysis analysis)
+    {
+        long start = System.nanoTime();
+        Verdict verdict = computeVerdict(analysis);
+
+        verdictCounts.incrementAndGet(verdict.ordinal());
+
+        synchronized (this)
+        {
+            totalNanos += System.nanoTime() - start;
+            evaluationCount++;
+        }
+
+        return verdict;
+    }
+
+    private Verdict computeVerdict(FrameAnalysis analysis)
+    {
+        byte[] data = analysis.getLevel(1);
+        int stride = analysis.getLevelStride(1);
+        int width = analysis.getLevelWidth(1);
+        int height = analysis.getLevelHeight(1);
+
+        if (width < 3 || height < 3)
+        {
+            return Verdict.BLURRED;
+        }
+
+        float sharpness = measureSharpness(data, analysis.getLevelOffset(1), stride, width, height, 1);
+
+        int[] histogram = analysis.getHistogram();
+        int pixels = analysis.getHistogramCount();
+        long luminanceSum = 0;
+        int clipped = 0;
+
+        for (int i = 0; i < histogram.length; i++)
+        {
+            luminanceSum += (long) i * histogram[i];
+
+            if (i <= CLIPPED_LOW || i >= CLIPPED_HIGH)
+            {
+                clipped += histogram[i];
+            }
+        }
+
+        int meanLuminance = (int) (luminanceSum / pixels);
+        float clippedRatio = (float) clipped / pixels;
+
+        lastSharpness = sharpness;
+        lastMeanLuminance = meanLuminance;
+        lastClippedRatio = clippedRatio;
+
+        if (meanLuminance < minMeanLuminance)
+        {
+            return Verdict.TOO_DARK;
+        }
+
+        if (meanLuminance > maxMeanLuminance)
+        {
+            return Verdict.TOO_BRIGHT;
+        }
+
+        if (clippedRatio > maxClippedRatio)
+        {
+            return Verdict.CLIPPED;
+        }
+
+        if (sharpness < minSharpness)
+        {
+            return Verdict.BLURRED;
+        }
+
+        return Verdict.ACCEPTED;
+    }
+
+    /**
+     * Variance of the Laplacian of an image, sampled on a sparse grid.
+     *
+     * @param spacing Distance between the pixels of the Laplacian kernel; 2 on a full resolution
+     *                image gives about the same scale as 1 on the half-resolution pyramid level.
+     */
+    static float measureSharpness(byte[] data, int offset, int stride, int width, int height, int spacing)
+    {
+        int border = spacing;
+
+        if (width <= 2 * border || height <= 2 * border)
+        {
+            return 0f;
+        }
+
+        int step = Math.max(1, (int) Math.sqrt((double) (width - 2 * border) * (height - 2 * border) / TARGET_SAMPLES));
+        int dx = spacing;
+        int dy = spacing * stride;
+
+        long sum = 0;
+        long sumSquares = 0;
+        int samples = 0;
+
+        for (int y = border, rowIndex = 0; y < height - border; y += step, rowIndex++)
+        {
+            int row = offset + y * stride;
+
+            // Staggering the columns keeps the grid from missing regularly spaced edges
+            for (int x = border + rowIndex % step; x < width - border; x += step)
+            {
+                int index = row + x;
+                int laplacian = 4 * (data[index] & 0xff)
+                        - (data[index - dx] & 0xff)
+                        - (data[index + dx] & 0xff)
+                        - (data[index - dy] & 0xff)
+                        - (data[index + dy] & 0xff);
+
+                sum += laplacian;
+                sumSquares += laplacian * laplacian;
+                samples++;
+            }
+        }
+
+        double mean = (double) sum / samples;
+        return (float) ((double) sumSquares / samples - mean * mean);
+    }
+
+    /**
+     * @param minSharpness Minimum variance of the Laplacian; lower values are treated as blurred.
+     */
+    void setMinSharpness(float minSharpness)
+    {
+        this.minSharpness = minSharpness;
+    }
+
+    /**
+     * @param minMeanLuminance Minimum mean luminance, from 0 to 255.
+     * @param maxMeanLuminance Maximum mean luminance, from 0 to 255.
+     */
+    void setLuminanceRange(int minMeanLuminance, int maxMeanLuminance)
+    {
+        this.minMeanLuminance = minMeanLuminance;
+        this.maxMeanLuminance = maxMeanLuminance;
+    }
+
+    /**
+     * @param maxClippedRatio Maximum share, from 0 to 1, of pure black or pure white pixels.
+     */
+    void setMaxClippedRatio(float maxClippedRatio)
+    {
+        this.maxClippedRatio = maxClippedRatio;
+    }
+
+    long getCount(Verdict verdict)
+    {
+        return verdictCounts.get(verdict.ordinal());
+    }
+
+    /**
+     * @return Sharpness of the last evaluated frame, to help tune {@link #setMinSharpness(float)}.
+     */
+    float getLastSharpness()
+    {
+        return lastSharpness;
+    }
+
+    int getLastMeanLuminance()
+    {
+        return lastMeanLuminance;
+    }
+
+    float getLastClippedRatio()
+    {
+        return lastClippedRatio;
+    }
+
+    synchronized long getAverageNanos()
+    {
+        return (evaluationCount > 0) ? totalNanos / evaluationCount : 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (Verdict verdict : Verdict.values())
+        {
+            builder.append(verdict.name().toLowerCase(Locale.US)).append(' ').append(getCount(verdict)).append(", ");
+        }
+
+        builder.append(String.format(Locale.US, "%.3f ms avg", getAverageNanos() / 1e6));
+        return builder.toString();
+    }
+}
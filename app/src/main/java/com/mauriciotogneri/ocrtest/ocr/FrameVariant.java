@@ -0,0 +1,132 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+/**
+ * Renderings of a greyscale crop that can be recognized side by side. Each one suits different
+ * print: plain dark digits on a light card, faded or low-contrast print, uneven lighting, or
+ * embossed digits that appear lighter than the card.
+ */
+enum FrameVariant
+{
+    /**
+     * The crop as captured.
+     */
+    RAW
+            {
+                @Override
+                byte[] render(byte[] luminance, int width, int height)
+                {
+                    return luminance;
+                }
+            },
+
+    /**
+     * Linear stretch that maps the 1st and 99th percentiles of luminance to black and white.
+     */
+    STRETCHED
+            {
+                @Override
+                byte[] render(byte[] luminance, int width, int height)
+                {
+                    int area = width * height;
+                    int[] histogram = new int[256];
+
+                    for (int i = 0; i < area; i++)
+                    {
+                        histogram[luminance[i] & 0xff]++;
+                    }
+
+                    int low = percentile(histogram, area / 100);
+                    int high = percentile(histogram, area - area / 100);
+
+                    if (high <= low)
+                    {
+                        return luminance;
+                    }
+
+                    byte[] table = new byte[256];
+
+                    for (int i = 0; i < 256; i++)
+                    {
+                        table[i] = (byte) Math.max(0, Math.min(255, (i - low) * 255 / (high - low)));
+                    }
+
+                    byte[] output = new byte[area];
+
+                    for (int i = 0; i < area; i++)
+                    {
+                        output[i] = table[luminance[i] & 0xff];
+                    }
+
+                    return output;
+                }
+            },
+
+    /**
+     * Local thresholds, for uneven lighting.
+     */
+    BINARIZED
+            {
+                @Override
+                byte[] render(byte[] luminance, int width, int height)
+                {
+                    byte[] output = new byte[width * height];
+                    System.arraycopy(luminance, 0, output, 0, output.length);
+
+                    FrameAnalysis analysis = new FrameAnalysis(width, height);
+                    analysis.reset(output, 0, width, width, height);
+
+                    // Variants already run on separate threads
+                    new AdaptiveBinarizer(AdaptiveBinarizer.Method.SAUVOLA,
+                                          Configuration.DEFAULT_BINARIZATION_WINDOW,
+                                          Configuration.DEFAULT_BINARIZATION_K,
+                                          Integer.MAX_VALUE,
+                                          1).binarize(analysis);
+
+                    return output;
+                }
+            },
+
+    /**
+     * Negative, for light digits on a darker background.
+     */
+    INVERTED
+            {
+                @Override
+                byte[] render(byte[] luminance, int width, int height)
+                {
+                    byte[] output = new byte[width * height];
+
+                    for (int i = 0; i < output.length; i++)
+                    {
+                        output[i] = (byte) (255 - (luminance[i] & 0xff));
+                    }
+
+                    return output;
+                }
+            };
+
+    /**
+     * @return The rendered image, which may be the given buffer itself if it is left unchanged.
+     */
+    abstract byte[] render(byte[] luminance, int width, int height);
+
+    /**
+     * @return The lowest luminance with more than the given number of pixels at or below it.
+     */
+    private static int percentile(int[] histogram, int count)
+    {
+        int sum = 0;
+
+        for (int i = 0; i < histogram.length; i++)
+        {
+            sum += histogram[i];
+
+            if (sum > count)
+            {
+                return i;
+            }
+        }
+
+        return histogram.length - 1;
+    }
+}
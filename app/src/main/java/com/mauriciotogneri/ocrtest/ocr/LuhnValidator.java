@@ -0,0 +1,35 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+/**
+ * Luhn (mod 10) check digit, used by card numbers and SIM card ICCIDs. Catches every single-digit
+ * error and most swaps of adjacent digits.
+ */
+public final class LuhnValidator implements NumberValidator
+{
+    @Override
+    public Result validate(CharSequence digits, int start, int end)
+    {
+        int sum = 0;
+        boolean isDoubled = false;
+
+        for (int i = end - 1; i >= start; i--)
+        {
+            int digit = digits.charAt(i) - '0';
+
+            if (isDoubled)
+            {
+                digit *= 2;
+
+                if (digit > 9)
+                {
+                    digit -= 9;
+                }
+            }
+
+            sum += digit;
+            isDoubled = !isDoubled;
+        }
+
+        return (sum % 10 == 0) ? Result.VERIFIED : Result.INVALID;
+    }
+}
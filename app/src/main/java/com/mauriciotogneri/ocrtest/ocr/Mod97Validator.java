@@ -0,0 +1,21 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+/**
+ * ISO 7064 MOD 97-10 check digits, as used by IBANs and national account numbers: the number taken
+ * as a whole must leave a remainder of 1 when divided by 97.
+ */
+public final class Mod97Validator implements NumberValidator
+{
+    @Override
+    public Result validate(CharSequence digits, int start, int end)
+    {
+        int remainder = 0;
+
+        for (int i = start; i < end; i++)
+        {
+            remainder = (remainder * 10 + (digits.charAt(i) - '0')) % 97;
+        }
+
+        return (remainder == 1) ? Result.VERIFIED : Result.INVALID;
+    }
+}
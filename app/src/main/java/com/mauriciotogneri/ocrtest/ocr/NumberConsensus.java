@@ -0,0 +1,322 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import java.nio.CharBuffer;
+
+/**
+ * Accepts a fixed-length digit string only once consecutive OCR results agree on it. Candidates
+ * vote per position, weighted by the confidence of the word they were read from, over a sliding
+ * window of recent frames. A read with one digit wrong still contributes its other digits, and a
+ * single confident misread can be outvoted.
+ * <p>
+ * Candidates one digit shorter or longer than the target length (a dropped or doubled digit) are
+ * aligned against the current vote leaders before they are counted. Since that alignment can be
+ * ambiguous around repeated digits, they vote with half weight and never count as agreeing frames.
+ * <p>
+ * An optional {@link NumberValidator} discards full-length candidates that fail it before they vote,
+ * and checks the agreed number; a number verified by a checksum needs fewer agreeing frames.
+ */
+public final class NumberConsensus
+{
+    private static final byte GAP = -1;
+
+    private final int length;
+    private final int windowSize;
+    private final int requiredFrames;
+    private final float requiredAgreement;
+
+    private final byte[][] windowDigits;
+    private final int[] windowWeights;
+    private final boolean[] windowExact;
+    private final int[][] weights;
+    private final int[][] support;
+    private final int[] positionTotals;
+    private final byte[] aligned;
+    private final char[] accepted;
+    private final CharBuffer acceptedView;
+    private int windowStart;
+    private int windowCount;
+    private NumberValidator validator;
+    private int verifiedFrames;
+    private long rejectedCount;
+
+    /**
+     * @param length            Number of digits in the number.
+     * @param windowSize        Number of most recent candidates that vote.
+     * @param requiredFrames    Minimum number of candidates that must agree on every digit.
+     * @param requiredAgreement Minimum share, from 0 to 1, of the confidence-weighted vote that the
+     *                          winning digit needs at every position.
+     */
+    public NumberConsensus(int length, int windowSize, int requiredFrames, float requiredAgreement)
+    {
+        if (length <= 0 || windowSize <= 0 || requiredFrames <= 0 || requiredFrames > windowSize)
+        {
+            throw new IllegalArgumentException("Invalid consensus parameters");
+        }
+
+        this.length = length;
+        this.windowSize = windowSize;
+        this.requiredFrames = requiredFrames;
+        this.requiredAgreement = requiredAgreement;
+        this.windowDigits = new byte[windowSize][length];
+        this.windowWeights = new int[windowSize];
+        this.windowExact = new boolean[windowSize];
+        this.weights = new int[length][10];
+        this.support = new int[length][10];
+        this.positionTotals = new int[length];
+        this.aligned = new byte[length];
+        this.accepted = new char[length];
+        this.acceptedView = CharBuffer.wrap(accepted);
+        this.verifiedFrames = requiredFrames;
+    }
+
+    /**
+     * @param validator      Validator for full-length candidates and for the agreed number, or null.
+     * @param verifiedFrames Minimum number of agreeing candidates for a number the validator
+     *                       verifies, at most the usual requirement.
+     */
+    public void setValidator(NumberValidator validator, int verifiedFrames)
+    {
+        this.validator = validator;
+        this.verifiedFrames = Math.max(1, Math.min(verifiedFrames, requiredFrames));
+    }
+
+    /**
+     * @return Full-length candidates discarded by the validator.
+     */
+    public long getRejectedCount()
+    {
+        return rejectedCount;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Forgets all votes, e.g. when the user points the camera at another card.
+     */
+    public void reset()
+    {
+        for (int p = 0; p < length; p++)
+        {
+            for (int d = 0; d < 10; d++)
+            {
+                weights[p][d] = 0;
+                support[p][d] = 0;
+            }
+            positionTotals[p] = 0;
+        }
+
+        windowStart = 0;
+        windowCount = 0;
+    }
+
+    /**
+     * Adds one candidate read and checks for consensus.
+     *
+     * @param text       Text holding the candidate digits.
+     * @param start      Index of the first digit in the text.
+     * @param end        Index after the last digit in the text.
+     * @param confidence Confidence of the read, from 0 to 100.
+     * @return The agreed number, or null if there is no consensus yet.
+     */
+    public String offer(CharSequence text, int start, int end, int confidence)
+    {
+        if (!align(text, start, end))
+        {
+            return null;
+        }
+
+        boolean exact = (end - start) == length;
+
+        if (exact && (validator != null)
+                && (validator.validate(text, start, end) == NumberValidator.Result.INVALID))
+        {
+            rejectedCount++;
+            return null;
+        }
+
+        vote(Math.max(1, exact ? confidence : confidence / 2), exact);
+
+        return checkConsensus();
+    }
+
+    public String offer(CharSequence digits, int confidence)
+    {
+        return offer(digits, 0, digits.length(), confidence);
+    }
+
+    /**
+     * Fills {@link #aligned} with the candidate digits, one per position, or {@link #GAP}.
+     *
+     * @return False if the candidate cannot be aligned.
+     */
+    private boolean align(CharSequence text, int start, int end)
+    {
+        int count = end - start;
+
+        for (int i = start; i < end; i++)
+        {
+            char c = text.charAt(i);
+
+            if (c < '0' || c > '9')
+            {
+                return false;
+            }
+        }
+
+        if (count == length)
+        {
+            for (int p = 0; p < length; p++)
+            {
+                aligned[p] = (byte) (text.charAt(start + p) - '0');
+            }
+            return true;
+        }
+
+        if (windowCount == 0 || Math.abs(count - length) != 1)
+        {
+            // Off-length reads can only be placed once there is something to align them against
+            return false;
+        }
+
+        int bestScore = -1;
+        int bestSkip = 0;
+
+        // For a long read, try dropping each digit; for a short read, try a gap at each position
+        for (int skip = 0; skip <= Math.min(count, length); skip++)
+        {
+            int score = 0;
+
+            for (int p = 0; p < length; p++)
+            {
+                int digit = digitAt(text, start, count, p, skip);
+
+                if (digit != GAP)
+                {
+                    score += weights[p][digit];
+                }
+            }
+
+            if (score > bestScore)
+            {
+                bestScore = score;
+                bestSkip = skip;
+            }
+        }
+
+        for (int p = 0; p < length; p++)
+        {
+            aligned[p] = (byte) digitAt(text, start, count, p, bestSkip);
+        }
+
+        return true;
+    }
+
+    private int digitAt(CharSequence text, int start, int count, int position, int skip)
+    {
+        int index;
+
+        if (count > length)
+        {
+            // Digit "skip" of the read is an extra one
+            index = (position < skip) ? position : position + 1;
+        }
+        else
+        {
+            // Position "skip" of the number is missing from the read
+            if (position == skip)
+            {
+                return GAP;
+            }
+            index = (position < skip) ? position : position - 1;
+        }
+
+        return text.charAt(start + index) - '0';
+    }
+
+    private void vote(int weight, boolean exact)
+    {
+        if (windowCount == windowSize)
+        {
+            // Evict the oldest candidate
+            byte[] oldest = windowDigits[windowStart];
+            int oldestWeight = windowWeights[windowStart];
+            int oldestSupport = windowExact[windowStart] ? 1 : 0;
+
+            for (int p = 0; p < length; p++)
+            {
+                if (oldest[p] != GAP)
+                {
+                    weights[p][oldest[p]] -= oldestWeight;
+                    support[p][oldest[p]] -= oldestSupport;
+                    positionTotals[p] -= oldestWeight;
+                }
+            }
+
+            windowStart = (windowStart + 1) % windowSize;
+            windowCount--;
+        }
+
+        int slot = (windowStart + windowCount) % windowSize;
+        System.arraycopy(aligned, 0, windowDigits[slot], 0, length);
+        windowWeights[slot] = weight;
+        windowExact[slot] = exact;
+        windowCount++;
+
+        for (int p = 0; p < length; p++)
+        {
+            if (aligned[p] != GAP)
+            {
+                weights[p][aligned[p]] += weight;
+                support[p][aligned[p]] += exact ? 1 : 0;
+                positionTotals[p] += weight;
+            }
+        }
+    }
+
+    private String checkConsensus()
+    {
+        int minSupport = Integer.MAX_VALUE;
+
+        for (int p = 0; p < length; p++)
+        {
+            int best = 0;
+
+            for (int d = 1; d < 10; d++)
+            {
+                if (weights[p][d] > weights[p][best])
+                {
+                    best = d;
+                }
+            }
+
+            if (support[p][best] < verifiedFrames
+                    || weights[p][best] < requiredAgreement * positionTotals[p])
+            {
+                return null;
+            }
+
+            minSupport = Math.min(minSupport, support[p][best]);
+            accepted[p] = (char) ('0' + best);
+        }
+
+        if (validator != null)
+        {
+            NumberValidator.Result result = validator.validate(acceptedView, 0, length);
+
+            if (result == NumberValidator.Result.INVALID
+                    || (result == NumberValidator.Result.UNVERIFIED && minSupport < requiredFrames))
+            {
+                return null;
+            }
+        }
+        else if (minSupport < requiredFrames)
+        {
+            return null;
+        }
+
+        return new String(accepted);
+    }
+}
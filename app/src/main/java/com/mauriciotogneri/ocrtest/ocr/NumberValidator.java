@@ -0,0 +1,33 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+/**
+ * Check run on a candidate number before the consensus voter accepts it. Implementations must not
+ * allocate, since they run for every candidate of every frame.
+ */
+public interface NumberValidator
+{
+    enum Result
+    {
+        /**
+         * The candidate cannot be the number; it is discarded without waiting for more frames.
+         */
+        INVALID,
+
+        /**
+         * The candidate may be the number.
+         */
+        UNVERIFIED,
+
+        /**
+         * A checksum confirms the candidate, so fewer frames need to agree on it.
+         */
+        VERIFIED
+    }
+
+    /**
+     * @param digits Text holding the candidate, all digits between start and end.
+     * @param start  Index of the first digit.
+     * @param end    Index after the last digit.
+     */
+    Result validate(CharSequence digits, int start, int end);
+}
@@ -0,0 +1,164 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Keeps the initialized OCR engines for the whole process, so that a new capture activity reuses
+ * the engines of the previous one instead of loading the language data again. Activities and the
+ * {@link OcrWarmUp} hold a reference to the engines between {@link #acquire(String, int)} or
+ * {@link #adopt} and {@link #release(OcrEnginePool)}.
+ * <p>
+ * Engines that no activity references are kept for an idle timeout, and ended earlier if the
+ * system runs low on memory. Used from the main thread only.
+ */
+final class OcrEngineHolder implements ComponentCallbacks2
+{
+    private static final String TAG = OcrEngineHolder.class.getSimpleName();
+
+    private static OcrEngineHolder instance;
+
+    private final Handler handler;
+    private final long idleTimeoutMillis;
+    private final Runnable endIdleEngines;
+    private OcrEnginePool enginePool;
+    private String languageCode;
+    private int ocrEngineMode;
+    private int references;
+    private int reuseCount;
+
+    private OcrEngineHolder(long idleTimeoutMillis)
+    {
+        this.handler = new Handler(Looper.getMainLooper());
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.endIdleEngines = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Log.d(TAG, "Ending OCR engines after " + OcrEngineHolder.this.idleTimeoutMillis + " ms idle");
+                endIfIdle();
+            }
+        };
+    }
+
+    static OcrEngineHolder get(Context context)
+    {
+        if (instance == null)
+        {
+            instance = new OcrEngineHolder(Configuration.DEFAULT_ENGINE_IDLE_TIMEOUT);
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+
+        return instance;
+    }
+
+    /**
+     * @return The kept engines, with a new reference to them, if they are meant for the given
+     * language and mode and have not failed; otherwise null, and the caller initializes a pool of
+     * its own. Engines that are still being initialized, e.g. by a warm-up, are returned too; the
+     * caller checks {@link OcrEnginePool#isReady()} and waits for them with
+     * {@link OcrEnginePool#init(String, String, int)} if needed.
+     */
+    OcrEnginePool acquire(String languageCode, int ocrEngineMode)
+    {
+        if (enginePool == null
+                || !enginePool.isUsable()
+                || !this.languageCode.equals(languageCode)
+                || this.ocrEngineMode != ocrEngineMode)
+        {
+            return null;
+        }
+
+        handler.removeCallbacks(endIdleEngines);
+        references++;
+        reuseCount++;
+        Log.d(TAG, "Reusing OCR engines (" + reuseCount + " times so far)");
+
+        return enginePool;
+    }
+
+    /**
+     * Keeps a pool that the caller is about to initialize, in place of the kept one, with one
+     * reference held by the caller.
+     */
+    void adopt(OcrEnginePool enginePool, String languageCode, int ocrEngineMode)
+    {
+        if (this.enginePool != null && this.enginePool != enginePool && references == 0)
+        {
+            // Engines still referenced are ended when their last holder releases them
+            this.enginePool.end();
+        }
+
+        handler.removeCallbacks(endIdleEngines);
+        this.enginePool = enginePool;
+        this.languageCode = languageCode;
+        this.ocrEngineMode = ocrEngineMode;
+        this.references = 1;
+    }
+
+    /**
+     * Gives up a reference to the given engines. The kept engines stay initialized for the idle
+     * timeout after their last reference goes; any others are ended right away.
+     */
+    void release(OcrEnginePool enginePool)
+    {
+        if (enginePool != this.enginePool)
+        {
+            enginePool.end();
+            return;
+        }
+
+        references = Math.max(0, references - 1);
+
+        if (references == 0)
+        {
+            if (enginePool.isReady())
+            {
+                handler.postDelayed(endIdleEngines, idleTimeoutMillis);
+            }
+            else
+            {
+                // Initialization failed or is still running; nothing worth keeping
+                endIfIdle();
+            }
+        }
+    }
+
+    private void endIfIdle()
+    {
+        handler.removeCallbacks(endIdleEngines);
+
+        if (enginePool != null && references == 0)
+        {
+            Log.d(TAG, "Ending OCR engines: " + enginePool);
+            enginePool.end();
+            enginePool = null;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level)
+    {
+        // Hiding the UI alone is no reason to drop the engines; coming back to scan is the case
+        // they are kept for
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN)
+        {
+            endIfIdle();
+        }
+    }
+
+    @Override
+    public void onLowMemory()
+    {
+        endIfIdle();
+    }
+
+    @Override
+    public void onConfigurationChanged(android.content.res.Configuration configuration)
+    {
+    }
+}
@@ -0,0 +1,355 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed set of initialized Tesseract engines, so that several frames can be recognized at the
+ * same time on multi-core devices. A TessBaseAPI instance is not thread-safe, so each engine is
+ * used by one caller at a time, between {@link #acquire()} and {@link #release(TessBaseAPI)}. For
+ * the same reason, recognition settings are applied to an engine only when it is acquired.
+ */
+final class OcrEnginePool
+{
+    private static final String TAG = OcrEnginePool.class.getSimpleName();
+
+    /**
+     * Rough native heap used by one engine with the English traineddata loaded.
+     */
+    private static final long ENGINE_MEMORY_ESTIMATE = 40L * 1024 * 1024;
+
+    private final int maxSize;
+    private final List<Engine> engines;
+    private final Map<TessBaseAPI, Engine> enginesByApi;
+    private final BlockingQueue<Engine> idleEngines;
+    private boolean ended;
+    private boolean initializing;
+    private boolean initialized;
+    private int settingsVersion;
+    private int pageSegMode;
+    private String blacklist;
+    private String whitelist;
+
+    private static final class Engine
+    {
+        private final int index;
+        private final TessBaseAPI api;
+        private final long createdAt;
+        private long busySince;
+        private long busyTime;
+        private int useCount;
+        private int settingsVersion;
+
+        private Engine(int index, TessBaseAPI api)
+        {
+            this.index = index;
+            this.api = api;
+            this.createdAt = System.nanoTime();
+        }
+    }
+
+    OcrEnginePool(int maxSize)
+    {
+        this.maxSize = Math.max(1, maxSize);
+        this.engines = new ArrayList<Engine>(this.maxSize);
+        this.enginesByApi = new IdentityHashMap<TessBaseAPI, Engine>(this.maxSize);
+        this.idleEngines = new ArrayBlockingQueue<Engine>(this.maxSize);
+    }
+
+    /**
+     * Picks a pool size that leaves one core for the camera and UI threads and keeps all engines
+     * within half of the per-app memory class.
+     */
+    static int computeSize(Context context)
+    {
+        int bySpeed = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long memoryBudget = (activityManager.getMemoryClass() * 1024L * 1024L) / 2;
+        int byMemory = (int) Math.max(1, memoryBudget / ENGINE_MEMORY_ESTIMATE);
+
+        return Math.min(Math.min(bySpeed, byMemory), Configuration.DEFAULT_MAX_OCR_ENGINES);
+    }
+
+    /**
+     * Creates and initializes the engines. The first engine is initialized on the calling thread,
+     * the others concurrently; engines that fail to initialize are left out of the pool. Only the
+     * first call initializes; later ones wait for it to finish and share its outcome, so a pool
+     * that is being warmed up can be handed to another initializer.
+     *
+     * @return True if at least one engine is ready.
+     */
+    boolean init(final String dataPath, final String languageCode, final int ocrEngineMode)
+    {
+        synchronized (this)
+        {
+            while (initializing)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            if (initialized || ended)
+            {
+                return isReady();
+            }
+
+            initializing = true;
+        }
+
+        try
+        {
+            return initEngines(dataPath, languageCode, ocrEngineMode);
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                initializing = false;
+                initialized = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private boolean initEngines(final String dataPath, final String languageCode, final int ocrEngineMode)
+    {
+        final TessBaseAPI[] apis = new TessBaseAPI[maxSize];
+        final boolean[] ready = new boolean[maxSize];
+        Thread[] threads = new Thread[maxSize];
+
+        for (int i = 1; i < maxSize; i++)
+        {
+            final int index = i;
+            threads[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    apis[index] = new TessBaseAPI();
+                    ready[index] = apis[index].init(dataPath, languageCode, ocrEngineMode);
+                }
+            }, "OcrEngineInit-" + i);
+            threads[i].start();
+        }
+
+        apis[0] = new TessBaseAPI();
+        ready[0] = apis[0].init(dataPath, languageCode, ocrEngineMode);
+
+        for (int i = 1; i < maxSize; i++)
+        {
+            try
+            {
+                threads[i].join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this)
+        {
+            if (ended)
+            {
+                // Ended while initializing; nobody will release these engines
+                for (int i = 0; i < maxSize; i++)
+                {
+                    if (apis[i] != null)
+                    {
+                        apis[i].end();
+                    }
+                }
+
+                return false;
+            }
+
+            for (int i = 0; i < maxSize; i++)
+            {
+                if (ready[i])
+                {
+                    Engine engine = new Engine(engines.size(), apis[i]);
+                    engines.add(engine);
+                    enginesByApi.put(apis[i], engine);
+                    idleEngines.add(engine);
+                }
+                else if (apis[i] != null)
+                {
+                    apis[i].end();
+                }
+            }
+
+            Log.d(TAG, "Initialized " + engines.size() + " of " + maxSize + " OCR engines");
+            return !engines.isEmpty();
+        }
+    }
+
+    /**
+     * Sets the recognition settings of every engine. Engines in use keep their settings until they
+     * are released; each engine picks up the new ones the next time it is acquired.
+     */
+    synchronized void configure(int pageSegMode, String blacklist, String whitelist)
+    {
+        this.pageSegMode = pageSegMode;
+        this.blacklist = blacklist;
+        this.whitelist = whitelist;
+        settingsVersion++;
+    }
+
+    synchronized int size()
+    {
+        return engines.size();
+    }
+
+    /**
+     * @return True if the engines have been initialized and not ended, so they can be used.
+     */
+    synchronized boolean isReady()
+    {
+        return !ended && !engines.isEmpty();
+    }
+
+    /**
+     * @return True if the engines are initialized or being initialized.
+     */
+    synchronized boolean isInitStarted()
+    {
+        return initializing || initialized;
+    }
+
+    /**
+     * @return True if the engines are ready, or may still become ready because initialization has
+     * not finished.
+     */
+    synchronized boolean isUsable()
+    {
+        return !ended && (!initialized || !engines.isEmpty());
+    }
+
+    /**
+     * Waits for a free engine. The caller has exclusive use of it until it is released.
+     */
+    TessBaseAPI acquire() throws InterruptedException
+    {
+        synchronized (this)
+        {
+            if (ended)
+            {
+                throw new IllegalStateException("OCR engine pool has been shut down");
+            }
+        }
+
+        Engine engine = idleEngines.take();
+        boolean isOutdated;
+        int pageSegMode;
+        String blacklist;
+        String whitelist;
+
+        synchronized (this)
+        {
+            engine.busySince = System.nanoTime();
+            engine.useCount++;
+            isOutdated = engine.settingsVersion != settingsVersion;
+            engine.settingsVersion = settingsVersion;
+            pageSegMode = this.pageSegMode;
+            blacklist = this.blacklist;
+            whitelist = this.whitelist;
+        }
+
+        if (isOutdated)
+        {
+            // The engine is exclusively ours now, so it can be changed
+            engine.api.setPageSegMode(pageSegMode);
+            engine.api.setVariable(TessBaseAPI.VAR_CHAR_BLACKLIST, blacklist);
+            engine.api.setVariable(TessBaseAPI.VAR_CHAR_WHITELIST, whitelist);
+        }
+
+        return engine.api;
+    }
+
+    void release(TessBaseAPI api)
+    {
+        synchronized (this)
+        {
+            Engine engine = enginesByApi.get(api);
+
+            if (engine == null)
+            {
+                return;
+            }
+
+            engine.busyTime += System.nanoTime() - engine.busySince;
+            engine.busySince = 0;
+
+            if (ended)
+            {
+                // The pool was shut down while this engine was busy
+                api.end();
+                return;
+            }
+
+            idleEngines.add(engine);
+        }
+    }
+
+    /**
+     * @return Fraction of its lifetime that the given engine has spent recognizing, from 0 to 1.
+     */
+    synchronized float getUtilization(int index)
+    {
+        Engine engine = engines.get(index);
+        long now = System.nanoTime();
+        long busy = engine.busyTime + ((engine.busySince != 0) ? now - engine.busySince : 0);
+        long lifetime = now - engine.createdAt;
+
+        return (lifetime > 0) ? (float) busy / lifetime : 0f;
+    }
+
+    /**
+     * Releases all native engine resources. Engines that are busy are released as soon as their
+     * current recognition returns.
+     */
+    synchronized void end()
+    {
+        ended = true;
+
+        Engine engine;
+        while ((engine = idleEngines.poll()) != null)
+        {
+            engine.api.end();
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < engines.size(); i++)
+        {
+            Engine engine = engines.get(i);
+            builder.append("engine ").append(engine.index)
+                    .append(": ").append(Math.round(getUtilization(i) * 100)).append("% busy, ")
+                    .append(engine.useCount).append(" uses; ");
+        }
+
+        return builder.toString();
+    }
+}
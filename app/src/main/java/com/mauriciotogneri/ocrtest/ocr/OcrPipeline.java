@@ -0,0 +1,296 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Recognition stage of the continuous capture, preprocess, recognize pipeline. The decode thread
+ * preprocesses frames and submits them to a bounded queue; one recognizer thread per OCR engine
+ * takes them from there. Preprocessing of the next frame therefore overlaps recognition of the
+ * current one, and the queue bound plus the {@link BackpressurePolicy} keep a slow recognizer
+ * from piling up stale frames. A {@link RecognitionWatchdog} bounds the time spent on each frame.
+ */
+final class OcrPipeline
+{
+    private static final String TAG = OcrPipeline.class.getSimpleName();
+
+    /**
+     * What to do with a preprocessed frame when the recognition queue is full.
+     */
+    public enum BackpressurePolicy
+    {
+        /**
+         * Discard the oldest queued frame to make room; the freshest frames always get recognized.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Discard the frame being submitted; frames already queued are recognized first.
+         */
+        DROP_NEWEST,
+
+        /**
+         * Stall preprocessing until there is room. Frames then pile up in the decode scheduler,
+         * which keeps only the newest.
+         */
+        BLOCK
+    }
+
+    /**
+     * Runs on a recognizer thread with an engine from the pool.
+     */
+    interface Recognizer
+    {
+        /**
+         * @param ticket Cancels the engine when the frame takes too long or goes stale; see
+         *               {@link RecognitionWatchdog}.
+         */
+        void recognize(TessBaseAPI engine, PipelineFrame frame, RecognitionWatchdog.Ticket ticket);
+    }
+
+    private final OcrEnginePool enginePool;
+    private final BlockingQueue<PipelineFrame> queue;
+    private final BackpressurePolicy policy;
+    private final ConcurrentLinkedQueue<PipelineFrame> freeFrames;
+    private final ConcurrentLinkedQueue<byte[]> freeBuffers;
+    private final PipelineStats stats;
+    private final RecognitionWatchdog watchdog;
+    private Recognizer recognizer;
+    private Thread[] workers;
+    private volatile boolean running;
+
+    /**
+     * @param deadlineMillis Longest time, in milliseconds, that one frame may be recognized for, or
+     *                       0 for no deadline.
+     * @param supersedeAgeMillis Shortest time, in milliseconds, that a recognition runs before a
+     *                           newer frame may cancel it.
+     */
+    OcrPipeline(OcrEnginePool enginePool, int queueCapacity, BackpressurePolicy policy, long deadlineMillis, long supersedeAgeMillis)
+    {
+        this.enginePool = enginePool;
+        this.queue = new ArrayBlockingQueue<PipelineFrame>(Math.max(1, queueCapacity));
+        this.policy = policy;
+        this.freeFrames = new ConcurrentLinkedQueue<PipelineFrame>();
+        this.freeBuffers = new ConcurrentLinkedQueue<byte[]>();
+        this.stats = new PipelineStats();
+        this.watchdog = new RecognitionWatchdog(deadlineMillis, supersedeAgeMillis);
+    }
+
+    /**
+     * Starts one recognizer thread per OCR engine.
+     */
+    synchronized void start(Recognizer recognizer)
+    {
+        if (workers != null)
+        {
+            return;
+        }
+
+        this.recognizer = recognizer;
+        running = true;
+        workers = new Thread[Math.max(1, enginePool.size())];
+
+        for (int i = 0; i < workers.length; i++)
+        {
+            workers[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    recognizeFrames();
+                }
+            }, "OcrRecognizer-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Stops the recognizer threads and discards queued frames. Recognitions already running are
+     * cancelled, and return as soon as Tesseract notices.
+     */
+    synchronized void stop()
+    {
+        running = false;
+        watchdog.shutdown();
+
+        if (workers != null)
+        {
+            for (Thread worker : workers)
+            {
+                worker.interrupt();
+            }
+            workers = null;
+        }
+
+        PipelineFrame frame;
+        while ((frame = queue.poll()) != null)
+        {
+            recycleFrame(frame);
+        }
+
+        Log.d(TAG, "Pipeline: " + stats);
+        Log.d(TAG, "Watchdog: " + watchdog);
+    }
+
+    /**
+     * @return A frame to preprocess into, possibly holding a luminance buffer from an earlier frame.
+     */
+    PipelineFrame obtainFrame()
+    {
+        PipelineFrame frame = freeFrames.poll();
+
+        if (frame == null)
+        {
+            frame = new PipelineFrame();
+        }
+
+        if (frame.luminance == null)
+        {
+            // The last result of this frame took its buffer; use one that a dropped result gave back
+            frame.luminance = freeBuffers.poll();
+        }
+
+        return frame;
+    }
+
+    /**
+     * Returns a frame to the free list. A result that took over the luminance buffer must clear
+     * {@link PipelineFrame#luminance} first.
+     */
+    void recycleFrame(PipelineFrame frame)
+    {
+        freeFrames.offer(frame);
+    }
+
+    /**
+     * Gives back a luminance buffer that a result took over from a frame, once the result is
+     * dropped, so that a later frame can preprocess into it. Thread-safe.
+     */
+    void recycleLuminance(byte[] luminance)
+    {
+        if (luminance != null)
+        {
+            freeBuffers.offer(luminance);
+        }
+    }
+
+    /**
+     * Hands a preprocessed frame to the recognition stage.
+     *
+     * @return False if the frame was dropped by the backpressure policy.
+     */
+    boolean submit(PipelineFrame frame)
+    {
+        if (!running)
+        {
+            recycleFrame(frame);
+            return false;
+        }
+
+        frame.queuedAt = System.nanoTime();
+
+        switch (policy)
+        {
+            case BLOCK:
+                try
+                {
+                    queue.put(frame);
+                    watchdog.onFrameQueued(enginePool.size());
+                    return true;
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+            case DROP_OLDEST:
+                while (!queue.offer(frame))
+                {
+                    PipelineFrame oldest = queue.poll();
+
+                    if (oldest != null)
+                    {
+                        stats.recordDrop();
+                        recycleFrame(oldest);
+                    }
+                }
+                watchdog.onFrameQueued(enginePool.size());
+                return true;
+
+            case DROP_NEWEST:
+                if (queue.offer(frame))
+                {
+                    watchdog.onFrameQueued(enginePool.size());
+                    return true;
+                }
+                break;
+        }
+
+        stats.recordDrop();
+        recycleFrame(frame);
+        return false;
+    }
+
+    PipelineStats getStats()
+    {
+        return stats;
+    }
+
+    private void recognizeFrames()
+    {
+        while (running)
+        {
+            PipelineFrame frame;
+            TessBaseAPI engine;
+
+            try
+            {
+                frame = queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+
+            stats.record(PipelineStats.Stage.QUEUE, System.nanoTime() - frame.queuedAt);
+
+            try
+            {
+                engine = enginePool.acquire();
+            }
+            catch (InterruptedException e)
+            {
+                recycleFrame(frame);
+                return;
+            }
+            catch (IllegalStateException e)
+            {
+                // The engines were shut down
+                recycleFrame(frame);
+                return;
+            }
+
+            long start = System.nanoTime();
+            RecognitionWatchdog.Ticket ticket = watchdog.start(engine);
+
+            try
+            {
+                recognizer.recognize(engine, frame, ticket);
+            }
+            finally
+            {
+                watchdog.finish(ticket);
+                enginePool.release(engine);
+                stats.record(PipelineStats.Stage.RECOGNIZE, System.nanoTime() - start);
+                recycleFrame(frame);
+            }
+        }
+    }
+}
@@ -1,38 +1,38 @@
 package com.mauriciotogneri.ocrtest.ocr;
 
-import android.graphics.Bitmap;
-import android.graphics.Rect;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 
+import com.googlecode.leptonica.android.Pix;
 import com.googlecode.leptonica.android.ReadFile;
-import com.googlecode.tesseract.android.ResultIterator;
 import com.googlecode.tesseract.android.TessBaseAPI;
-import com.googlecode.tesseract.android.TessBaseAPI.PageIteratorLevel;
 import com.mauriciotogneri.ocrtest.R;
 
-import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Class to send OCR requests to the OCR engine in a separate thread, send a success/failure message,
  * and dismiss the indeterminate progress dialog box. Used for non-continuous mode OCR only.
+ * <p>
+ * The frame is recognized in several renderings at once, each on its own engine, so that the wall
+ * clock time stays close to a single recognition on multi-core devices.
  */
 public class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean>
 {
     private CaptureActivity activity;
-    private TessBaseAPI baseApi;
+    private OcrEnginePool enginePool;
     private byte[] data;
     private int width;
     private int height;
     private OcrResult ocrResult;
     private long timeRequired;
 
-    OcrRecognizeAsyncTask(CaptureActivity activity, TessBaseAPI baseApi, byte[] data, int width, int height)
+    OcrRecognizeAsyncTask(CaptureActivity activity, OcrEnginePool enginePool, byte[] data, int width, int height)
     {
         this.activity = activity;
-        this.baseApi = baseApi;
+        this.enginePool = enginePool;
         this.data = data;
         this.width = width;
         this.height = height;
@@ -42,43 +42,79 @@ public class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean>
     protected Boolean doInBackground(Void... arg0)
     {
         long start = System.currentTimeMillis();
-        Bitmap bitmap = activity.getCameraManager().buildLuminanceSource(data, width, height).renderCroppedGreyscaleBitmap();
-        String textResult;
+        PlanarYUVLuminanceSource source = activity.getCameraManager().buildLuminanceSource(data, width, height);
+        byte[] luminance = source.renderCroppedGreyscale(null);
+        activity.getCameraManager().releasePreviewBuffer(data);
+
+        // Each variant needs an engine of its own; with fewer engines, only the first variants run
+        FrameVariant[] variants = Configuration.DEFAULT_ENSEMBLE_VARIANTS;
+        int count = Math.max(1, Math.min(variants.length, enginePool.size()));
+        Attempt[] attempts = new Attempt[count];
+        CountDownLatch finished = new CountDownLatch(count - 1);
+
+        for (int i = 0; i < count; i++)
+        {
+            FrameVariant variant = (i < variants.length) ? variants[i] : FrameVariant.RAW;
+            attempts[i] = new Attempt(variant, luminance, source.getWidth(), source.getHeight(), (i > 0) ? finished : null);
+        }
+
+        for (int i = 1; i < count; i++)
+        {
+            new Thread(attempts[i], "OcrEnsemble-" + i).start();
+        }
+
+        attempts[0].run();
 
         try
         {
-            baseApi.setImage(ReadFile.readBitmap(bitmap));
-            textResult = baseApi.getUTF8Text();
+            finished.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        try
+        {
+            Attempt best = null;
+
+            for (Attempt attempt : attempts)
+            {
+                if (attempt.error != null)
+                {
+                    throw attempt.error;
+                }
+
+                if (attempt.isBetterThan(best))
+                {
+                    best = attempt;
+                }
+            }
+
             timeRequired = System.currentTimeMillis() - start;
 
             // Check for failure to recognize text
-            if (textResult == null || textResult.equals(""))
+            if (best == null)
             {
                 return false;
             }
+
+            Log.d("OcrRecognizeAsyncTask", "Best of " + count + " variants: " + best.variant
+                    + " (confidence " + best.meanConfidence + ", number " + best.numberResult + ")");
+
+            TessBaseAPI baseApi = best.baseApi;
             ocrResult = new OcrResult();
-            ocrResult.setWordConfidences(baseApi.wordConfidences());
-            ocrResult.setMeanConfidence(baseApi.meanConfidence());
-            ocrResult.setRegionBoundingBoxes(baseApi.getRegions().getBoxRects());
-            ocrResult.setTextlineBoundingBoxes(baseApi.getTextlines().getBoxRects());
-            ocrResult.setWordBoundingBoxes(baseApi.getWords().getBoxRects());
-            ocrResult.setStripBoundingBoxes(baseApi.getStrips().getBoxRects());
-
-            // Iterate through the results.
-            final ResultIterator iterator = baseApi.getResultIterator();
-            int[] lastBoundingBox;
-            ArrayList<Rect> charBoxes = new ArrayList<Rect>();
-            iterator.begin();
-            do
-            {
-                lastBoundingBox = iterator.getBoundingBox(PageIteratorLevel.RIL_SYMBOL);
-                Rect lastRectBox = new Rect(lastBoundingBox[0], lastBoundingBox[1],
-                                            lastBoundingBox[2], lastBoundingBox[3]);
-                charBoxes.add(lastRectBox);
-            } while (iterator.next(PageIteratorLevel.RIL_SYMBOL));
-            iterator.delete();
-            ocrResult.setCharacterBoundingBoxes(charBoxes);
+            ocrResult.setWordConfidences(best.wordConfidences);
+            ocrResult.setMeanConfidence(best.meanConfidence);
+            ResultExtractor.extract(baseApi, ocrResult, Configuration.DEFAULT_RESULT_LEVELS, 1f);
+
+            timeRequired = System.currentTimeMillis() - start;
 
+            // The user sees the frame as captured, whichever variant won
+            ocrResult.setLuminance(luminance, source.getWidth(), source.getHeight());
+            ocrResult.setText(best.text);
+            ocrResult.setRecognitionTimeRequired(timeRequired);
+            return true;
         }
         catch (RuntimeException e)
         {
@@ -86,7 +122,6 @@ public class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean>
             e.printStackTrace();
             try
             {
-                baseApi.clear();
                 activity.stopHandler();
             }
             catch (NullPointerException e1)
@@ -95,11 +130,13 @@ public class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean>
             }
             return false;
         }
-        timeRequired = System.currentTimeMillis() - start;
-        ocrResult.setBitmap(bitmap);
-        ocrResult.setText(textResult);
-        ocrResult.setRecognitionTimeRequired(timeRequired);
-        return true;
+        finally
+        {
+            for (Attempt attempt : attempts)
+            {
+                attempt.releaseEngine();
+            }
+        }
     }
 
     @Override
@@ -123,9 +160,165 @@ public class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean>
             }
             activity.getProgressDialog().dismiss();
         }
-        if (baseApi != null)
+    }
+
+    /**
+     * Recognition of one variant of the frame, on an engine of its own. The engine is kept until
+     * the winning attempt has been picked, so that only the winner's boxes are extracted.
+     */
+    private final class Attempt implements Runnable
+    {
+        private final FrameVariant variant;
+        private final byte[] luminance;
+        private final int width;
+        private final int height;
+        private final CountDownLatch finished;
+        private TessBaseAPI baseApi;
+        private String text;
+        private int meanConfidence;
+        private int[] wordConfidences;
+        private NumberValidator.Result numberResult;
+        private RuntimeException error;
+
+        private Attempt(FrameVariant variant, byte[] luminance, int width, int height, CountDownLatch finished)
+        {
+            this.variant = variant;
+            this.luminance = luminance;
+            this.width = width;
+            this.height = height;
+            this.finished = finished;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                recognize();
+            }
+            catch (RuntimeException e)
+            {
+                error = e;
+            }
+            finally
+            {
+                if (finished != null)
+                {
+                    finished.countDown();
+                }
+            }
+        }
+
+        private void recognize()
+        {
+            try
+            {
+                // Use whichever engine is free, so a single shot does not wait behind continuous frames
+                baseApi = enginePool.acquire();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (IllegalStateException e)
+            {
+                // The engines were shut down
+                return;
+            }
+
+            byte[] image = variant.render(luminance, width, height);
+
+            // The whole framing rectangle may hold several lines
+            baseApi.setPageSegMode(Configuration.DEFAULT_FALLBACK_PAGE_SEGMENTATION_MODE);
+
+            Pix pix = ReadFile.readBytes8(image, width, height);
+            baseApi.setImage(pix);
+            pix.recycle();
+            text = baseApi.getUTF8Text();
+
+            if (text == null || text.equals(""))
+            {
+                text = null;
+                return;
+            }
+
+            meanConfidence = baseApi.meanConfidence();
+            wordConfidences = baseApi.wordConfidences();
+            numberResult = findNumber(text);
+        }
+
+        /**
+         * @return The best validation result of the full-length digit sequences in the text, or null
+         * if there are none.
+         */
+        private NumberValidator.Result findNumber(String text)
         {
-            baseApi.clear();
+            NumberValidator validator = activity.getNumberValidator();
+            DigitSequenceScanner scanner = DecodeHandler.NUMBER_SCANNER.get();
+            NumberValidator.Result best = null;
+
+            scanner.reset(text);
+
+            while (scanner.next())
+            {
+                CharSequence digits = scanner.getDigits();
+
+                if (digits.length() != Configuration.DEFAULT_NUMBER_LENGTH)
+                {
+                    continue;
+                }
+
+                NumberValidator.Result result = (validator != null)
+                        ? validator.validate(digits, 0, digits.length())
+                        : NumberValidator.Result.UNVERIFIED;
+
+                if (best == null || result.ordinal() > best.ordinal())
+                {
+                    best = result;
+                }
+            }
+
+            return best;
+        }
+
+        /**
+         * Attempts that read a valid number win over those that do not; between equals, the higher
+         * mean confidence wins.
+         */
+        private boolean isBetterThan(Attempt other)
+        {
+            if (text == null)
+            {
+                return false;
+            }
+
+            if (other == null)
+            {
+                return true;
+            }
+
+            int rank = getRank(numberResult);
+            int otherRank = getRank(other.numberResult);
+
+            return (rank != otherRank) ? rank > otherRank : meanConfidence > other.meanConfidence;
+        }
+
+        /**
+         * @return The rank of a number check result; a rejected number ranks with no number at all.
+         */
+        private int getRank(NumberValidator.Result result)
+        {
+            return (result == null || result == NumberValidator.Result.INVALID) ? -1 : result.ordinal();
+        }
+
+        private void releaseEngine()
+        {
+            if (baseApi != null)
+            {
+                baseApi.clear();
+                enginePool.release(baseApi);
+                baseApi = null;
+            }
         }
     }
-}
\ No newline at end of file
+}
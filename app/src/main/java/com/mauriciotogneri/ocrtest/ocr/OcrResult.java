@@ -10,21 +10,22 @@ import android.graphics.Rect;
 import java.util.List;
 
 /**
- * Encapsulates the result of OCR.
+ * Encapsulates the result of OCR. Bounding boxes are kept in a pooled {@link BoxTable}; the list
+ * getters and setters convert from and to it.
  */
 public class OcrResult
 {
     private Bitmap bitmap;
+    private boolean isBitmapAnnotated;
+    private byte[] luminance;
+    private int width;
+    private int height;
     private String text;
 
     private int[] wordConfidences;
     private int meanConfidence;
 
-    private List<Rect> regionBoundingBoxes;
-    private List<Rect> textlineBoundingBoxes;
-    private List<Rect> wordBoundingBoxes;
-    private List<Rect> stripBoundingBoxes;
-    private List<Rect> characterBoundingBoxes;
+    private BoxTable boxes;
 
     private long timestamp;
     private long recognitionTimeRequired;
@@ -42,45 +43,75 @@ public class OcrResult
                      List<Rect> characterBoundingBoxes,
                      long recognitionTimeRequired)
     {
-        this.bitmap = bitmap;
+        setBitmap(bitmap);
         this.text = text;
         this.wordConfidences = wordConfidences;
         this.meanConfidence = meanConfidence;
-        this.regionBoundingBoxes = regionBoundingBoxes;
-        this.textlineBoundingBoxes = textlineBoundingBoxes;
-        this.wordBoundingBoxes = wordBoundingBoxes;
-        this.stripBoundingBoxes = stripBoundingBoxes;
-        this.characterBoundingBoxes = characterBoundingBoxes;
+        this.boxes = BoxTable.obtain();
+        this.boxes.set(ResultExtractor.Level.REGION, regionBoundingBoxes);
+        this.boxes.set(ResultExtractor.Level.TEXTLINE, textlineBoundingBoxes);
+        this.boxes.set(ResultExtractor.Level.WORD, wordBoundingBoxes);
+        this.boxes.set(ResultExtractor.Level.STRIP, stripBoundingBoxes);
+        this.boxes.set(ResultExtractor.Level.SYMBOL, characterBoundingBoxes);
         this.recognitionTimeRequired = recognitionTimeRequired;
         this.timestamp = System.currentTimeMillis();
-
-        this.paint = new Paint();
     }
 
     public OcrResult()
     {
         timestamp = System.currentTimeMillis();
-        this.paint = new Paint();
+        this.boxes = BoxTable.obtain();
     }
 
+    /**
+     * Returns the recognized image with the word bounding boxes drawn on it. When the result only
+     * holds 8-bit luminance, the Bitmap is built the first time it is requested.
+     */
     public Bitmap getBitmap()
     {
-        return getAnnotatedBitmap();
+        if (bitmap == null && luminance != null)
+        {
+            bitmap = PlanarYUVLuminanceSource.renderGreyscaleBitmap(luminance, width, height);
+            luminance = null;
+        }
+
+        if (bitmap != null && !isBitmapAnnotated)
+        {
+            isBitmapAnnotated = true;
+            getAnnotatedBitmap(bitmap);
+        }
+
+        return bitmap;
     }
 
-    private Bitmap getAnnotatedBitmap()
+    private Bitmap getAnnotatedBitmap(Bitmap bitmap)
     {
+        if (boxes == null)
+        {
+            return bitmap;
+        }
+
         Canvas canvas = new Canvas(bitmap);
+        Rect r = new Rect();
+
+        if (paint == null)
+        {
+            paint = new Paint();
+        }
 
         // Draw bounding boxes around each word
-        for (int i = 0; i < wordBoundingBoxes.size(); i++)
+        for (int i = 0; i < boxes.size(); i++)
         {
+            if (boxes.getLevel(i) != ResultExtractor.Level.WORD)
+            {
+                continue;
+            }
+
             paint.setAlpha(0xFF);
             paint.setColor(0xFF00CCFF);
             paint.setStyle(Style.STROKE);
             paint.setStrokeWidth(2);
-            Rect r = wordBoundingBoxes.get(i);
-            canvas.drawRect(r, paint);
+            canvas.drawRect(boxes.getRect(i, r), paint);
         }
 
         //    // Draw bounding boxes around each character
@@ -118,32 +149,72 @@ public class OcrResult
 
     public Point getBitmapDimensions()
     {
-        return new Point(bitmap.getWidth(), bitmap.getHeight());
+        return new Point(width, height);
     }
 
     public List<Rect> getRegionBoundingBoxes()
     {
-        return regionBoundingBoxes;
+        return (boxes != null) ? boxes.getRects(ResultExtractor.Level.REGION) : null;
     }
 
     public List<Rect> getTextlineBoundingBoxes()
     {
-        return textlineBoundingBoxes;
+        return (boxes != null) ? boxes.getRects(ResultExtractor.Level.TEXTLINE) : null;
     }
 
     public List<Rect> getWordBoundingBoxes()
     {
-        return wordBoundingBoxes;
+        return (boxes != null) ? boxes.getRects(ResultExtractor.Level.WORD) : null;
     }
 
     public List<Rect> getStripBoundingBoxes()
     {
-        return stripBoundingBoxes;
+        return (boxes != null) ? boxes.getRects(ResultExtractor.Level.STRIP) : null;
     }
 
     public List<Rect> getCharacterBoundingBoxes()
     {
-        return characterBoundingBoxes;
+        return (boxes != null) ? boxes.getRects(ResultExtractor.Level.SYMBOL) : null;
+    }
+
+    /**
+     * @return The bounding boxes of every extracted level.
+     */
+    BoxTable getBoxes()
+    {
+        if (boxes == null)
+        {
+            boxes = BoxTable.obtain();
+        }
+
+        return boxes;
+    }
+
+    /**
+     * Gives the bounding boxes back to the pool once nothing will look at them again; the bitmap
+     * keeps any boxes already drawn on it.
+     */
+    void recycleBoxes()
+    {
+        if (boxes != null)
+        {
+            boxes.recycle();
+            boxes = null;
+        }
+    }
+
+    /**
+     * Hands the luminance over to the caller, e.g. to reuse the buffer once the result is dropped.
+     * The Bitmap can no longer be built from it afterwards.
+     *
+     * @return The luminance, or null if the result does not hold any, e.g. because the Bitmap has
+     * been built already.
+     */
+    byte[] takeLuminance()
+    {
+        byte[] taken = luminance;
+        luminance = null;
+        return taken;
     }
 
     public long getTimestamp()
@@ -154,6 +225,27 @@ public class OcrResult
     public void setBitmap(Bitmap bitmap)
     {
         this.bitmap = bitmap;
+        this.isBitmapAnnotated = false;
+        this.luminance = null;
+
+        if (bitmap != null)
+        {
+            this.width = bitmap.getWidth();
+            this.height = bitmap.getHeight();
+        }
+    }
+
+    /**
+     * Stores the recognized image as 8-bit luminance; the display Bitmap is only built on demand.
+     * The result keeps a reference to the array, so it must not be reused afterwards.
+     */
+    public void setLuminance(byte[] luminance, int width, int height)
+    {
+        this.bitmap = null;
+        this.isBitmapAnnotated = false;
+        this.luminance = luminance;
+        this.width = width;
+        this.height = height;
     }
 
     public void setText(String text)
@@ -178,27 +270,27 @@ public class OcrResult
 
     public void setRegionBoundingBoxes(List<Rect> regionBoundingBoxes)
     {
-        this.regionBoundingBoxes = regionBoundingBoxes;
+        getBoxes().set(ResultExtractor.Level.REGION, regionBoundingBoxes);
     }
 
     public void setTextlineBoundingBoxes(List<Rect> textlineBoundingBoxes)
     {
-        this.textlineBoundingBoxes = textlineBoundingBoxes;
+        getBoxes().set(ResultExtractor.Level.TEXTLINE, textlineBoundingBoxes);
     }
 
     public void setWordBoundingBoxes(List<Rect> wordBoundingBoxes)
     {
-        this.wordBoundingBoxes = wordBoundingBoxes;
+        getBoxes().set(ResultExtractor.Level.WORD, wordBoundingBoxes);
     }
 
     public void setStripBoundingBoxes(List<Rect> stripBoundingBoxes)
     {
-        this.stripBoundingBoxes = stripBoundingBoxes;
+        getBoxes().set(ResultExtractor.Level.STRIP, stripBoundingBoxes);
     }
 
     public void setCharacterBoundingBoxes(List<Rect> characterBoundingBoxes)
     {
-        this.characterBoundingBoxes = characterBoundingBoxes;
+        getBoxes().set(ResultExtractor.Level.SYMBOL, characterBoundingBoxes);
     }
 
     @Override
@@ -6,7 +6,9 @@ import android.graphics.Rect;
 import java.util.List;
 
 /**
- * Encapsulates text and its character/word coordinates resulting from OCR.
+ * Encapsulates text and its character/word coordinates resulting from OCR. Made from an
+ * {@link OcrResult}, it shares the result's boxes rather than copying them, and is only valid while
+ * the result keeps them.
  */
 public final class OcrResultText
 {
@@ -15,11 +17,16 @@ public final class OcrResultText
     private final int[] wordConfidences;
     private final int meanConfidence;
     private final Point bitmapDimensions;
-    private final List<Rect> regionBoundingBoxes;
-    private final List<Rect> textlineBoundingBoxes;
-    private final List<Rect> stripBoundingBoxes;
-    private final List<Rect> wordBoundingBoxes;
-    private final List<Rect> characterBoundingBoxes;
+    private final BoxTable boxes;
+
+    public OcrResultText(OcrResult ocrResult)
+    {
+        this.text = ocrResult.getText();
+        this.wordConfidences = ocrResult.getWordConfidences();
+        this.meanConfidence = ocrResult.getMeanConfidence();
+        this.bitmapDimensions = ocrResult.getBitmapDimensions();
+        this.boxes = ocrResult.getBoxes();
+    }
 
     public OcrResultText(String text,
                          int[] wordConfidences,
@@ -35,11 +42,12 @@ public final class OcrResultText
         this.wordConfidences = wordConfidences;
         this.meanConfidence = meanConfidence;
         this.bitmapDimensions = bitmapDimensions;
-        this.regionBoundingBoxes = regionBoundingBoxes;
-        this.textlineBoundingBoxes = textlineBoundingBoxes;
-        this.stripBoundingBoxes = stripBoundingBoxes;
-        this.wordBoundingBoxes = wordBoundingBoxes;
-        this.characterBoundingBoxes = characterBoundingBoxes;
+        this.boxes = BoxTable.obtain();
+        this.boxes.set(ResultExtractor.Level.REGION, regionBoundingBoxes);
+        this.boxes.set(ResultExtractor.Level.TEXTLINE, textlineBoundingBoxes);
+        this.boxes.set(ResultExtractor.Level.STRIP, stripBoundingBoxes);
+        this.boxes.set(ResultExtractor.Level.WORD, wordBoundingBoxes);
+        this.boxes.set(ResultExtractor.Level.SYMBOL, characterBoundingBoxes);
     }
 
     public String getText()
@@ -64,27 +72,27 @@ public final class OcrResultText
 
     public List<Rect> getRegionBoundingBoxes()
     {
-        return regionBoundingBoxes;
+        return boxes.getRects(ResultExtractor.Level.REGION);
     }
 
     public List<Rect> getTextlineBoundingBoxes()
     {
-        return textlineBoundingBoxes;
+        return boxes.getRects(ResultExtractor.Level.TEXTLINE);
     }
 
     public List<Rect> getStripBoundingBoxes()
     {
-        return stripBoundingBoxes;
+        return boxes.getRects(ResultExtractor.Level.STRIP);
     }
 
     public List<Rect> getWordBoundingBoxes()
     {
-        return wordBoundingBoxes;
+        return boxes.getRects(ResultExtractor.Level.WORD);
     }
 
     public List<Rect> getCharacterBoundingBoxes()
     {
-        return characterBoundingBoxes;
+        return boxes.getRects(ResultExtractor.Level.SYMBOL);
     }
 
     @Override
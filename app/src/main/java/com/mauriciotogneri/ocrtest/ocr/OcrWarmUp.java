@@ -0,0 +1,170 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.mauriciotogneri.ocrtest.camera.CameraManager;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Prepares a scan while the screen that starts it is visible: checks that the language data is
+ * installed, initializes the OCR engines, works out the camera configuration and allocates the
+ * preview buffers, all on a background thread. The capture activity then picks the engines up from
+ * the {@link OcrEngineHolder}, waiting for them if they are not ready yet, and the camera manager
+ * picks up the configuration and buffers.
+ * <p>
+ * Language data that is missing is left for the capture activity to install, since that needs its
+ * progress dialog. Also keeps the time from opening the capture activity to its first decode, for
+ * cold and warm starts, so that the gain shows up in the log.
+ */
+public final class OcrWarmUp
+{
+    private static final String TAG = OcrWarmUp.class.getSimpleName();
+
+    private static final long[] firstDecodeCounts = new long[2];
+    private static final long[] firstDecodeMillis = new long[2];
+
+    private final Context context;
+    private OcrEnginePool enginePool;
+    private WarmUp warmUp;
+
+    public OcrWarmUp(Context context)
+    {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Starts warming up, unless it is already running. Call from the main thread.
+     */
+    public void start()
+    {
+        if (warmUp != null)
+        {
+            return;
+        }
+
+        String languageCode = Configuration.DEFAULT_SOURCE_LANGUAGE_CODE;
+        int ocrEngineMode = Configuration.DEFAULT_OCR_ENGINE_MODE;
+        OcrEngineHolder holder = OcrEngineHolder.get(context);
+        enginePool = holder.acquire(languageCode, ocrEngineMode);
+
+        if (enginePool == null)
+        {
+            enginePool = new OcrEnginePool(OcrEnginePool.computeSize(context));
+            holder.adopt(enginePool, languageCode, ocrEngineMode);
+        }
+
+        warmUp = new WarmUp(enginePool, languageCode, ocrEngineMode);
+        new Thread(warmUp, "OcrWarmUp").start();
+    }
+
+    /**
+     * Stops warming up and gives up the engines. Engines that a capture activity has picked up in
+     * the meantime stay in use; otherwise initialized engines are kept for the idle timeout, as
+     * after a scan, and engines still initializing are ended. Call from the main thread.
+     */
+    public void cancel()
+    {
+        if (warmUp != null)
+        {
+            warmUp.isCancelled = true;
+            warmUp = null;
+        }
+
+        if (enginePool != null)
+        {
+            OcrEngineHolder.get(context).release(enginePool);
+            enginePool = null;
+        }
+    }
+
+    private final class WarmUp implements Runnable
+    {
+        private final OcrEnginePool enginePool;
+        private final String languageCode;
+        private final int ocrEngineMode;
+        private volatile boolean isCancelled;
+
+        private WarmUp(OcrEnginePool enginePool, String languageCode, int ocrEngineMode)
+        {
+            this.enginePool = enginePool;
+            this.languageCode = languageCode;
+            this.ocrEngineMode = ocrEngineMode;
+        }
+
+        @Override
+        public void run()
+        {
+            long start = SystemClock.elapsedRealtime();
+            File storageRoot = getStorageRoot(context);
+            boolean isDataInstalled = (storageRoot != null)
+                    && new TessdataInstaller(context, new File(storageRoot, "tessdata")).isInstalled(languageCode + ".traineddata");
+
+            if (isDataInstalled && !isCancelled && !enginePool.isReady())
+            {
+                enginePool.init(storageRoot.toString() + File.separator, languageCode, ocrEngineMode);
+            }
+
+            long engineTime = SystemClock.elapsedRealtime() - start;
+            boolean isCameraReady = !isCancelled && CameraManager.warmUp(context);
+
+            Log.d(TAG, String.format(Locale.US, "Warm-up %s: data %s, engines %s in %d ms, camera %s, %d ms in total",
+                                     isCancelled ? "cancelled" : "finished",
+                                     isDataInstalled ? "installed" : "missing",
+                                     enginePool.isReady() ? "ready" : "not ready",
+                                     engineTime,
+                                     isCameraReady ? "ready" : "not ready",
+                                     SystemClock.elapsedRealtime() - start));
+        }
+    }
+
+    /**
+     * @return The directory holding the tessdata directory, or null if external storage is not
+     * available.
+     */
+    static File getStorageRoot(Context context)
+    {
+        try
+        {
+            if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState()))
+            {
+                return context.getExternalFilesDir(Environment.MEDIA_MOUNTED);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            Log.e(TAG, "External storage is unavailable", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Records the time from the start of a capture activity to its first decode.
+     *
+     * @param isWarm True if the activity found its engines already initialized or initializing.
+     */
+    static synchronized void recordFirstDecode(boolean isWarm, long millis)
+    {
+        int index = isWarm ? 1 : 0;
+        firstDecodeCounts[index]++;
+        firstDecodeMillis[index] += millis;
+
+        Log.d(TAG, String.format(Locale.US, "Time to first decode: %d ms (%s); cold %s, warm %s",
+                                 millis,
+                                 isWarm ? "warm" : "cold",
+                                 formatAverage(0),
+                                 formatAverage(1)));
+    }
+
+    private static String formatAverage(int index)
+    {
+        long count = firstDecodeCounts[index];
+
+        return (count > 0) ? String.format(Locale.US, "%d ms avg over %d", firstDecodeMillis[index] / count, count) : "none";
+    }
+}
@@ -0,0 +1,23 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+/**
+ * A cropped preview frame handed from the preprocessing stage to the recognition stage. Instances
+ * and their luminance buffers are recycled by the {@link OcrPipeline}.
+ */
+final class PipelineFrame
+{
+    byte[] luminance;
+    int width;
+    int height;
+    long sequence;
+    long queuedAt;
+    int pageSegMode;
+
+    void set(byte[] luminance, int width, int height, long sequence)
+    {
+        this.luminance = luminance;
+        this.width = width;
+        this.height = height;
+        this.sequence = sequence;
+    }
+}
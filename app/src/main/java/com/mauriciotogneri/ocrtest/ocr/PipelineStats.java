@@ -0,0 +1,98 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import java.util.Locale;
+
+/**
+ * Per-stage timing of the continuous recognition pipeline, so the stage that limits throughput on a
+ * given device can be identified.
+ */
+final class PipelineStats
+{
+    enum Stage
+    {
+        PREPROCESS,
+        QUEUE,
+        RECOGNIZE
+    }
+
+    private final long[] counts;
+    private final long[] totalNanos;
+    private final long[] maxNanos;
+    private long droppedCount;
+
+    PipelineStats()
+    {
+        int stages = Stage.values().length;
+        this.counts = new long[stages];
+        this.totalNanos = new long[stages];
+        this.maxNanos = new long[stages];
+    }
+
+    synchronized void record(Stage stage, long nanos)
+    {
+        int index = stage.ordinal();
+        counts[index]++;
+        totalNanos[index] += nanos;
+
+        if (nanos > maxNanos[index])
+        {
+            maxNanos[index] = nanos;
+        }
+    }
+
+    synchronized void recordDrop()
+    {
+        droppedCount++;
+    }
+
+    synchronized long getCount(Stage stage)
+    {
+        return counts[stage.ordinal()];
+    }
+
+    synchronized long getAverageNanos(Stage stage)
+    {
+        int index = stage.ordinal();
+        return (counts[index] > 0) ? totalNanos[index] / counts[index] : 0;
+    }
+
+    synchronized long getMaxNanos(Stage stage)
+    {
+        return maxNanos[stage.ordinal()];
+    }
+
+    /**
+     * @return Frames discarded by the backpressure policy between preprocessing and recognition.
+     */
+    synchronized long getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+    /**
+     * @return The working stage (preprocessing or recognition) with the highest average time.
+     */
+    synchronized Stage getBottleneck()
+    {
+        return (getAverageNanos(Stage.PREPROCESS) > getAverageNanos(Stage.RECOGNIZE)) ? Stage.PREPROCESS : Stage.RECOGNIZE;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (Stage stage : Stage.values())
+        {
+            builder.append(String.format(Locale.US, "%s avg %.1f ms max %.1f ms (%d); ",
+                                         stage.name().toLowerCase(Locale.US),
+                                         getAverageNanos(stage) / 1e6,
+                                         getMaxNanos(stage) / 1e6,
+                                         getCount(stage)));
+        }
+
+        return builder.append("dropped ").append(droppedCount)
+                .append("; bottleneck ").append(getBottleneck().name().toLowerCase(Locale.US))
+                .toString();
+    }
+}
@@ -45,25 +45,82 @@ public final class PlanarYUVLuminanceSource
         this.top = top;
     }
 
-    public Bitmap renderCroppedGreyscaleBitmap()
+    public int getWidth()
     {
-        int[] pixels = new int[width * height];
-        byte[] yuv = yuvData;
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Points the analysis at the cropped region of the Y plane, without copying it.
+     */
+    void analyze(FrameAnalysis analysis)
+    {
+        analysis.reset(yuvData, top * dataWidth + left, dataWidth, width, height);
+    }
+
+    /**
+     * @return A source for part of the cropped region, sharing the same data.
+     */
+    public PlanarYUVLuminanceSource crop(int left, int top, int width, int height)
+    {
+        return new PlanarYUVLuminanceSource(yuvData, dataWidth, dataHeight, this.left + left, this.top + top, width, height);
+    }
+
+    /**
+     * Copies the cropped Y plane, one byte per pixel, into the given buffer. This is the layout
+     * Leptonica expects for an 8 bpp Pix, so no intermediate ARGB Bitmap is needed for OCR.
+     *
+     * @param buffer A buffer to reuse if it holds at least width * height bytes, or null.
+     * @return The buffer holding the cropped luminance in its first width * height bytes.
+     */
+    public byte[] renderCroppedGreyscale(byte[] buffer)
+    {
+        int area = width * height;
+        byte[] luminance = buffer;
+
+        if (luminance == null || luminance.length < area)
+        {
+            luminance = new byte[area];
+        }
+
+        if (left == 0 && width == dataWidth)
+        {
+            // The crop spans whole rows, so it is one contiguous block
+            System.arraycopy(yuvData, top * dataWidth, luminance, 0, area);
+            return luminance;
+        }
+
         int inputOffset = top * dataWidth + left;
 
         for (int y = 0; y < height; y++)
         {
-            int outputOffset = y * width;
-            for (int x = 0; x < width; x++)
-            {
-                int grey = yuv[inputOffset + x] & 0xff;
-                pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
-            }
+            System.arraycopy(yuvData, inputOffset, luminance, y * width, width);
             inputOffset += dataWidth;
         }
 
+        return luminance;
+    }
+
+    /**
+     * Expands 8-bit luminance into an ARGB Bitmap. Only needed when the image is shown to the user.
+     */
+    public static Bitmap renderGreyscaleBitmap(byte[] luminance, int width, int height)
+    {
+        int[] pixels = new int[width * height];
+
+        for (int i = 0; i < pixels.length; i++)
+        {
+            int grey = luminance[i] & 0xff;
+            pixels[i] = 0xFF000000 | (grey * 0x00010101);
+        }
+
         Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
         return bitmap;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,136 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Set of allowed number prefixes, e.g. issuer ranges, stored as a digit trie in flat arrays. A
+ * lookup walks at most one node per digit and allocates nothing.
+ * <p>
+ * Prefixes are read one per line; empty lines and lines starting with '#' are ignored.
+ */
+public final class PrefixTrie implements NumberValidator
+{
+    private static final int NO_NODE = 0;
+
+    // Children of node n are at [n * 10, n * 10 + 9]; node 0 is the root, so 0 also means "no child"
+    private final int[] children;
+    private final boolean[] isTerminal;
+    private final int nodeCount;
+
+    private PrefixTrie(int[] children, boolean[] isTerminal, int nodeCount)
+    {
+        this.children = children;
+        this.isTerminal = isTerminal;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Reads the prefixes from the given stream, and closes it.
+     */
+    public static PrefixTrie load(InputStream inputStream) throws IOException
+    {
+        int[] children = new int[10 * 64];
+        boolean[] isTerminal = new boolean[64];
+        int nodeCount = 1;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "US-ASCII"));
+
+        try
+        {
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+
+                if (line.isEmpty() || line.charAt(0) == '#')
+                {
+                    continue;
+                }
+
+                int node = 0;
+
+                for (int i = 0; i < line.length(); i++)
+                {
+                    int digit = line.charAt(i) - '0';
+
+                    if (digit < 0 || digit > 9)
+                    {
+                        throw new IOException("Invalid prefix: " + line);
+                    }
+
+                    if (children[node * 10 + digit] == NO_NODE)
+                    {
+                        if (nodeCount == isTerminal.length)
+                        {
+                            int[] newChildren = new int[children.length * 2];
+                            System.arraycopy(children, 0, newChildren, 0, children.length);
+                            children = newChildren;
+
+                            boolean[] newTerminal = new boolean[isTerminal.length * 2];
+                            System.arraycopy(isTerminal, 0, newTerminal, 0, isTerminal.length);
+                            isTerminal = newTerminal;
+                        }
+
+                        children[node * 10 + digit] = nodeCount++;
+                    }
+
+                    node = children[node * 10 + digit];
+                }
+
+                isTerminal[node] = true;
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return new PrefixTrie(children, isTerminal, nodeCount);
+    }
+
+    /**
+     * @return True if the given digits start with one of the prefixes.
+     */
+    public boolean matches(CharSequence digits, int start, int end)
+    {
+        if (nodeCount == 1)
+        {
+            // No prefixes: everything is allowed
+            return true;
+        }
+
+        int node = 0;
+
+        for (int i = start; i < end; i++)
+        {
+            node = children[node * 10 + (digits.charAt(i) - '0')];
+
+            if (node == NO_NODE)
+            {
+                return false;
+            }
+
+            if (isTerminal[node])
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public Result validate(CharSequence digits, int start, int end)
+    {
+        return matches(digits, start, end) ? Result.UNVERIFIED : Result.INVALID;
+    }
+
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+}
@@ -0,0 +1,248 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounds the time spent recognizing a continuous frame. Each recognition runs under a
+ * {@link Ticket}; when its deadline passes, when a newer frame is queued while every engine is busy
+ * and the oldest recognition has run for a minimum age, or when the pipeline stops, the ticket
+ * cancels the engine through {@link TessBaseAPI#stop()}. The minimum age keeps a steady stream of
+ * frames from cancelling every recognition before it can finish.
+ * <p>
+ * Tesseract only checks for cancellation while it recognizes under a progress monitor, which
+ * {@link TessBaseAPI#getHOCRText(int)} sets up; recognizers must run the recognition pass through
+ * it and check {@link Ticket#isCancelled()} before reading any result, since a cancelled pass is
+ * incomplete. Setting up the monitor clears an earlier stop, so recognizers also check the ticket
+ * before starting the pass, and a cancelled engine is stopped again every
+ * {@link #RESTOP_INTERVAL_MILLIS} until its ticket is finished.
+ */
+final class RecognitionWatchdog
+{
+    /**
+     * Time, in milliseconds, between the stops sent to a cancelled engine that has not finished yet.
+     */
+    private static final long RESTOP_INTERVAL_MILLIS = 20;
+
+    enum Reason
+    {
+        /**
+         * The recognition ran past its deadline.
+         */
+        DEADLINE,
+
+        /**
+         * A newer frame was waiting for the engine.
+         */
+        SUPERSEDED,
+
+        /**
+         * The pipeline stopped.
+         */
+        SHUTDOWN
+    }
+
+    /**
+     * One recognition on one engine.
+     */
+    final class Ticket implements Runnable
+    {
+        private final TessBaseAPI engine;
+        private final long startedAt;
+        private ScheduledFuture<?> timeout;
+        private ScheduledFuture<?> restop;
+        private Reason reason;
+        private boolean isFinished;
+
+        private Ticket(TessBaseAPI engine)
+        {
+            this.engine = engine;
+            this.startedAt = System.nanoTime();
+        }
+
+        @Override
+        public void run()
+        {
+            cancel(this, Reason.DEADLINE);
+        }
+
+        boolean isCancelled()
+        {
+            synchronized (RecognitionWatchdog.this)
+            {
+                return reason != null;
+            }
+        }
+
+        Reason getReason()
+        {
+            synchronized (RecognitionWatchdog.this)
+            {
+                return reason;
+            }
+        }
+    }
+
+    private final long deadlineMillis;
+    private final long supersedeAgeNanos;
+    private final ArrayDeque<Ticket> running;
+    private final AtomicLongArray reasonCounts;
+    private ScheduledThreadPoolExecutor executor;
+    private long ticketCount;
+
+    /**
+     * @param deadlineMillis Longest time, in milliseconds, that one frame may be recognized for, or
+     *                       0 for no deadline.
+     * @param supersedeAgeMillis Shortest time, in milliseconds, that a recognition runs before a
+     *                           newer frame may cancel it.
+     */
+    RecognitionWatchdog(long deadlineMillis, long supersedeAgeMillis)
+    {
+        this.deadlineMillis = deadlineMillis;
+        this.supersedeAgeNanos = TimeUnit.MILLISECONDS.toNanos(supersedeAgeMillis);
+        this.running = new ArrayDeque<Ticket>();
+        this.reasonCounts = new AtomicLongArray(Reason.values().length);
+    }
+
+    /**
+     * Starts watching a recognition on the given engine. Every ticket must be finished with
+     * {@link #finish(Ticket)}, after which its engine is no longer stopped.
+     */
+    synchronized Ticket start(TessBaseAPI engine)
+    {
+        Ticket ticket = new Ticket(engine);
+        running.addLast(ticket);
+        ticketCount++;
+
+        if (deadlineMillis > 0)
+        {
+            ticket.timeout = getExecutor().schedule(ticket, deadlineMillis, TimeUnit.MILLISECONDS);
+        }
+
+        return ticket;
+    }
+
+    private ScheduledThreadPoolExecutor getExecutor()
+    {
+        if (executor == null)
+        {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "RecognitionWatchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(true);
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+
+        return executor;
+    }
+
+    synchronized void finish(Ticket ticket)
+    {
+        ticket.isFinished = true;
+        running.remove(ticket);
+
+        if (ticket.timeout != null)
+        {
+            ticket.timeout.cancel(false);
+        }
+
+        if (ticket.restop != null)
+        {
+            ticket.restop.cancel(false);
+        }
+    }
+
+    /**
+     * Called when a new frame is queued. If every engine is busy and the oldest recognition has run
+     * for at least the supersede age, it is stale and is cancelled, so that its engine moves on to
+     * the new frame. Younger recognitions are left to finish; the frames queued behind them wait,
+     * or are dropped by the backpressure policy.
+     */
+    synchronized void onFrameQueued(int engineCount)
+    {
+        Ticket oldest = running.peekFirst();
+
+        if (oldest != null
+                && running.size() >= engineCount
+                && System.nanoTime() - oldest.startedAt >= supersedeAgeNanos)
+        {
+            cancel(oldest, Reason.SUPERSEDED);
+        }
+    }
+
+    /**
+     * Cancels every running recognition and lets the timer thread end. The watchdog can still be used
+     * afterwards; the timer thread is started again when needed.
+     */
+    synchronized void shutdown()
+    {
+        for (Ticket ticket : running)
+        {
+            cancel(ticket, Reason.SHUTDOWN);
+        }
+
+        if (executor != null)
+        {
+            // The repeated stops go on until their tickets are finished; the thread ends after them
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private synchronized void cancel(Ticket ticket, Reason reason)
+    {
+        if (ticket == null || ticket.isFinished || ticket.reason != null)
+        {
+            return;
+        }
+
+        ticket.reason = reason;
+        reasonCounts.incrementAndGet(reason.ordinal());
+        ticket.engine.stop();
+
+        // The stop is lost if the pass has not set up its monitor yet
+        final TessBaseAPI engine = ticket.engine;
+        ticket.restop = getExecutor().scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                engine.stop();
+            }
+        }, RESTOP_INTERVAL_MILLIS, RESTOP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    long getCount(Reason reason)
+    {
+        return reasonCounts.get(reason.ordinal());
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "deadline %d ms, supersede after %d ms, %d recognitions",
+                                     deadlineMillis, TimeUnit.NANOSECONDS.toMillis(supersedeAgeNanos), ticketCount));
+
+        for (Reason reason : Reason.values())
+        {
+            builder.append(", ").append(reason.name().toLowerCase(Locale.US)).append(' ').append(getCount(reason));
+        }
+
+        return builder.toString();
+    }
+}
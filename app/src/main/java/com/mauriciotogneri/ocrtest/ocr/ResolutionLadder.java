@@ -0,0 +1,255 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import java.util.Locale;
+
+/**
+ * Picks the resolution at which a continuous frame is recognized first. Recognition time grows with
+ * the number of pixels, and clean frames often read just as well at a lower resolution, so a frame
+ * starts low and only climbs to the next level when the read is not good enough.
+ * <p>
+ * Each level keeps a running hit rate over the frames that were read well at some level: the share
+ * of them that this level was enough for. Frames that no level reads, such as those pointed away
+ * from the card, say nothing about the resolution needed and are left out; the caller does not
+ * climb for them either. The first level tried is
+ * the lowest one whose hit rate is at least the target; every few frames one level lower is tried
+ * as well, so the ladder can come back down when conditions improve. Levels start out optimistic,
+ * so a session starts at the lowest level.
+ * <p>
+ * Thread-safe; recognizer threads share one ladder.
+ */
+final class ResolutionLadder
+{
+    /**
+     * Weight of the newest read in the running hit rates.
+     */
+    private static final float RATE_WEIGHT = 0.1f;
+
+    /**
+     * Every this many frames, start one level below the usual one.
+     */
+    private static final int EXPLORE_INTERVAL = 16;
+
+    private final float[] scales;
+    private final float minHitRate;
+    private final int maxPixels;
+    private final float[] hitRates;
+    private final long[] attempts;
+    private final long[] hits;
+    private final long[] nanos;
+    private final long[] starts;
+    private long frameCount;
+
+    /**
+     * @param scales     Scale of the crop at each level, from the lowest to the highest.
+     * @param minHitRate Running hit rate, from 0 to 1, that a level needs to be started at.
+     * @param maxPixels  Largest resampled crop, in pixels; levels above it are skipped.
+     */
+    ResolutionLadder(float[] scales, float minHitRate, int maxPixels)
+    {
+        if (scales.length == 0)
+        {
+            throw new IllegalArgumentException("The ladder needs at least one level");
+        }
+
+        this.scales = scales.clone();
+        this.minHitRate = minHitRate;
+        this.maxPixels = maxPixels;
+        this.hitRates = new float[scales.length];
+        this.attempts = new long[scales.length];
+        this.hits = new long[scales.length];
+        this.nanos = new long[scales.length];
+        this.starts = new long[scales.length];
+
+        for (int i = 0; i < scales.length; i++)
+        {
+            hitRates[i] = 1f;
+        }
+    }
+
+    int getLevelCount()
+    {
+        return scales.length;
+    }
+
+    float getScale(int level)
+    {
+        return scales[level];
+    }
+
+    /**
+     * @return The level to recognize a new crop of the given size at first.
+     */
+    synchronized int getStartLevel(int width, int height)
+    {
+        int level = scales.length - 1;
+
+        for (int i = 0; i < scales.length; i++)
+        {
+            if (hitRates[i] >= minHitRate)
+            {
+                level = i;
+                break;
+            }
+        }
+
+        frameCount++;
+
+        if (level > 0 && frameCount % EXPLORE_INTERVAL == 0)
+        {
+            level--;
+        }
+
+        while (level > 0 && !fits(width, height, level))
+        {
+            level--;
+        }
+
+        starts[level]++;
+        return level;
+    }
+
+    /**
+     * @return The level above the given one that a crop of the given size can climb to, or -1.
+     */
+    int getNextLevel(int level, int width, int height)
+    {
+        int next = level + 1;
+
+        return (next < scales.length && fits(width, height, next)) ? next : -1;
+    }
+
+    private boolean fits(int width, int height, int level)
+    {
+        return (long) getScaledSize(width, level) * getScaledSize(height, level) <= maxPixels;
+    }
+
+    /**
+     * Records the outcome of one recognition at the given level.
+     */
+    synchronized void record(int level, boolean hit, long elapsedNanos)
+    {
+        attempts[level]++;
+        hits[level] += hit ? 1 : 0;
+        nanos[level] += elapsedNanos;
+    }
+
+    /**
+     * Updates the hit rates once a frame has climbed as far as it needed to.
+     *
+     * @param startLevel The level the frame started at.
+     * @param readLevel  The level that read the frame well, or -1 if none did.
+     */
+    synchronized void onFrameFinished(int startLevel, int readLevel)
+    {
+        if (readLevel < 0)
+        {
+            return;
+        }
+
+        for (int level = startLevel; level <= readLevel; level++)
+        {
+            hitRates[level] += RATE_WEIGHT * (((level == readLevel) ? 1f : 0f) - hitRates[level]);
+        }
+    }
+
+    /**
+     * Resamples a crop to the scale of the given level.
+     *
+     * @param output A buffer to reuse if it is large enough, or null.
+     * @return The resampled crop, of {@link #getScaledSize(int, int)} pixels per side, or the given
+     * crop itself at scale 1 or if it is too small to resample.
+     */
+    byte[] scale(byte[] luminance, int width, int height, int level, byte[] output)
+    {
+        float scale = scales[level];
+
+        if (scale == 1f || width < 2 || height < 2)
+        {
+            return luminance;
+        }
+
+        int scaledWidth = getScaledSize(width, level);
+        int scaledHeight = getScaledSize(height, level);
+
+        if (output == null || output.length < scaledWidth * scaledHeight)
+        {
+            output = new byte[scaledWidth * scaledHeight];
+        }
+
+        if (scale == 0.5f)
+        {
+            // Box filter, which also averages out sensor noise
+            for (int y = 0; y < scaledHeight; y++)
+            {
+                int row = 2 * y * width;
+
+                for (int x = 0; x < scaledWidth; x++)
+                {
+                    int index = row + 2 * x;
+                    int sum = (luminance[index] & 0xff)
+                            + (luminance[index + 1] & 0xff)
+                            + (luminance[index + width] & 0xff)
+                            + (luminance[index + width + 1] & 0xff);
+
+                    output[y * scaledWidth + x] = (byte) ((sum + 2) >> 2);
+                }
+            }
+
+            return output;
+        }
+
+        for (int y = 0; y < scaledHeight; y++)
+        {
+            float sourceY = Math.max(0f, Math.min(height - 1, (y + 0.5f) / scale - 0.5f));
+            int y0 = Math.min((int) sourceY, height - 2);
+            float fy = sourceY - y0;
+
+            for (int x = 0; x < scaledWidth; x++)
+            {
+                float sourceX = Math.max(0f, Math.min(width - 1, (x + 0.5f) / scale - 0.5f));
+                int x0 = Math.min((int) sourceX, width - 2);
+                float fx = sourceX - x0;
+                int index = y0 * width + x0;
+
+                float top = (luminance[index] & 0xff) * (1f - fx) + (luminance[index + 1] & 0xff) * fx;
+                float bottom = (luminance[index + width] & 0xff) * (1f - fx) + (luminance[index + width + 1] & 0xff) * fx;
+
+                output[y * scaledWidth + x] = (byte) (top * (1f - fy) + bottom * fy + 0.5f);
+            }
+        }
+
+        return output;
+    }
+
+    /**
+     * @return A crop side of the given length, in pixels, at the scale of the given level.
+     */
+    int getScaledSize(int size, int level)
+    {
+        if (size < 2)
+        {
+            return size;
+        }
+
+        return (scales[level] == 0.5f) ? size / 2 : Math.max(1, Math.round(size * scales[level]));
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < scales.length; i++)
+        {
+            builder.append(String.format(Locale.US, "x%.2f: started %d, %d/%d hits (%.0f%% recent), %.1f ms avg; ",
+                                         scales[i],
+                                         starts[i],
+                                         hits[i],
+                                         attempts[i],
+                                         hitRates[i] * 100,
+                                         (attempts[i] > 0) ? nanos[i] / 1e6 / attempts[i] : 0.0));
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import com.googlecode.leptonica.android.Pixa;
+import com.googlecode.tesseract.android.ResultIterator;
+import com.googlecode.tesseract.android.TessBaseAPI;
+import com.googlecode.tesseract.android.TessBaseAPI.PageIteratorLevel;
+
+/**
+ * Copies the bounding boxes of a recognition into the {@link BoxTable} of an {@link OcrResult}, for
+ * the page levels that are asked for only. Boxes are read by walking a result iterator over the
+ * recognition, rather than with {@link TessBaseAPI#getWords()} and the like, which also crop a Pix
+ * image for every box, and are stored as ints without creating a rect per box.
+ * <p>
+ * Must be called before the engine is cleared; levels that are not extracted stay null in the
+ * result.
+ */
+final class ResultExtractor
+{
+    enum Level
+    {
+        REGION(PageIteratorLevel.RIL_BLOCK),
+        TEXTLINE(PageIteratorLevel.RIL_TEXTLINE),
+        STRIP(-1),
+        WORD(PageIteratorLevel.RIL_WORD),
+        SYMBOL(PageIteratorLevel.RIL_SYMBOL);
+
+        /**
+         * Iterator level, or -1 for levels that only layout analysis knows about.
+         */
+        private final int iteratorLevel;
+
+        Level(int iteratorLevel)
+        {
+            this.iteratorLevel = iteratorLevel;
+        }
+    }
+
+    private ResultExtractor()
+    {
+    }
+
+    /**
+     * @param scale Scale of the recognized image relative to the one the result describes; boxes
+     *              are mapped back by it.
+     */
+    static void extract(TessBaseAPI baseApi, OcrResult ocrResult, Level[] levels, float scale)
+    {
+        BoxTable boxes = ocrResult.getBoxes();
+        ResultIterator iterator = null;
+
+        try
+        {
+            for (Level level : levels)
+            {
+                boxes.set(level, null);
+                boxes.addLevel(level);
+
+                if (level == Level.STRIP)
+                {
+                    Pixa strips = baseApi.getStrips();
+                    addBoxes(boxes, strips, scale);
+                    strips.recycle();
+                }
+                else
+                {
+                    if (iterator == null)
+                    {
+                        iterator = baseApi.getResultIterator();
+
+                        if (iterator == null)
+                        {
+                            return;
+                        }
+                    }
+
+                    addBoxes(boxes, iterator, level, scale);
+                }
+            }
+        }
+        finally
+        {
+            if (iterator != null)
+            {
+                iterator.delete();
+            }
+        }
+    }
+
+    private static void addBoxes(BoxTable boxes, ResultIterator iterator, Level level, float scale)
+    {
+        iterator.begin();
+
+        do
+        {
+            int[] box = iterator.getBoundingBox(level.iteratorLevel);
+
+            if (box != null)
+            {
+                boxes.add(level,
+                          unscale(box[0], scale),
+                          unscale(box[1], scale),
+                          unscale(box[2], scale),
+                          unscale(box[3], scale),
+                          (int) iterator.confidence(level.iteratorLevel));
+            }
+        } while (iterator.next(level.iteratorLevel));
+    }
+
+    private static void addBoxes(BoxTable boxes, Pixa strips, float scale)
+    {
+        int[] geometry = new int[4];
+
+        for (int i = 0; i < strips.size(); i++)
+        {
+            if (strips.getBoxGeometry(i, geometry))
+            {
+                // Geometry is x, y, width, height
+                boxes.add(Level.STRIP,
+                          unscale(geometry[0], scale),
+                          unscale(geometry[1], scale),
+                          unscale(geometry[0] + geometry[2], scale),
+                          unscale(geometry[1] + geometry[3], scale),
+                          0);
+            }
+        }
+    }
+
+    /**
+     * Maps a coordinate found in a resampled image back to the original one.
+     */
+    private static int unscale(int coordinate, float scale)
+    {
+        return (scale == 1f) ? coordinate : Math.round(coordinate / scale);
+    }
+}
@@ -0,0 +1,266 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import java.util.Locale;
+
+/**
+ * Estimates and corrects the skew of a single text line, so that Tesseract can read it in single
+ * line mode instead of running its own orientation and script detection on every frame.
+ * <p>
+ * The edge pixels of a small pyramid level of the line, from the shared {@link FrameAnalysis}, are
+ * collected first. For each
+ * candidate angle the edge pixels are projected onto rows along that angle; the profile is most
+ * peaked, and the sum of the squared bins highest, when the angle follows the text. A coarse search
+ * over the whole range is refined around the best angle. The correction is a vertical shear, which
+ * for the small angles involved is indistinguishable from a rotation and much cheaper.
+ * <p>
+ * The capture screen is locked to landscape and the digit line is located horizontally, so only
+ * skew within the search range is handled; the text is never upside down or vertical.
+ * <p>
+ * Uses preallocated arrays and must only be called from one thread, the decode thread.
+ */
+final class SkewEstimator
+{
+    /**
+     * Largest width of the pyramid level used for the estimate, unless even the smallest level is
+     * wider.
+     */
+    private static final int MAX_LEVEL_WIDTH = 320;
+
+    private static final float COARSE_STEP = 1f;
+    private static final float FINE_STEP = 0.2f;
+
+    private final float maxAngle;
+    private final int edgeThreshold;
+
+    private int[] edgeX;
+    private int[] edgeY;
+    private long[] bins;
+    private int[] shifts;
+
+    private long estimateCount;
+    private long deskewCount;
+    private long totalNanos;
+    private double totalAbsoluteAngle;
+
+    /**
+     * @param maxAngle      Largest skew searched, in degrees, both ways.
+     * @param edgeThreshold Minimum horizontal luminance step at the pyramid level for an edge pixel.
+     */
+    SkewEstimator(float maxAngle, int edgeThreshold)
+    {
+        this.maxAngle = maxAngle;
+        this.edgeThreshold = edgeThreshold;
+        this.edgeX = new int[0];
+        this.edgeY = new int[0];
+        this.bins = new long[0];
+        this.shifts = new int[0];
+    }
+
+    /**
+     * @return The skew of the text line in degrees; positive when the line descends to the right.
+     */
+    float estimate(FrameAnalysis analysis)
+    {
+        long start = System.nanoTime();
+        float angle = findAngle(analysis);
+
+        synchronized (this)
+        {
+            estimateCount++;
+            totalNanos += System.nanoTime() - start;
+            totalAbsoluteAngle += Math.abs(angle);
+        }
+
+        return angle;
+    }
+
+    private float findAngle(FrameAnalysis analysis)
+    {
+        int level = analysis.getLevelForWidth(MAX_LEVEL_WIDTH);
+        int levelWidth = analysis.getLevelWidth(level);
+        int levelHeight = analysis.getLevelHeight(level);
+
+        if (levelWidth < 2 || levelHeight < 2)
+        {
+            return 0f;
+        }
+
+        int edges = collectEdges(analysis.getLevel(level), analysis.getLevelOffset(level), analysis.getLevelStride(level), levelWidth, levelHeight);
+
+        if (edges == 0)
+        {
+            return 0f;
+        }
+
+        int reach = (int) Math.ceil(levelWidth * Math.tan(Math.toRadians(maxAngle))) + 1;
+
+        if (bins.length < levelHeight + 2 * reach)
+        {
+            bins = new long[levelHeight + 2 * reach];
+        }
+
+        float best = 0f;
+        long bestScore = score(0f, edges, levelHeight + 2 * reach, reach);
+
+        for (float angle = -maxAngle; angle <= maxAngle; angle += COARSE_STEP)
+        {
+            long score = score(angle, edges, levelHeight + 2 * reach, reach);
+
+            if (score > bestScore)
+            {
+                bestScore = score;
+                best = angle;
+            }
+        }
+
+        float coarse = best;
+
+        for (float angle = coarse - COARSE_STEP; angle <= coarse + COARSE_STEP; angle += FINE_STEP)
+        {
+            if (Math.abs(angle) > maxAngle)
+            {
+                continue;
+            }
+
+            long score = score(angle, edges, levelHeight + 2 * reach, reach);
+
+            if (score > bestScore)
+            {
+                bestScore = score;
+                best = angle;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Collects the coordinates of the pixels with a strong horizontal gradient.
+     *
+     * @return Number of edge pixels.
+     */
+    private int collectEdges(byte[] level, int offset, int stride, int levelWidth, int levelHeight)
+    {
+        int count = 0;
+
+        for (int y = 0; y < levelHeight; y++)
+        {
+            int row = offset + y * stride;
+
+            for (int x = 1; x < levelWidth; x++)
+            {
+                if (Math.abs((level[row + x] & 0xff) - (level[row + x - 1] & 0xff)) >= edgeThreshold)
+                {
+                    if (count == edgeX.length)
+                    {
+                        growEdges();
+                    }
+
+                    edgeX[count] = x;
+                    edgeY[count] = y;
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private void growEdges()
+    {
+        int capacity = Math.max(1024, edgeX.length * 2);
+        int[] newX = new int[capacity];
+        int[] newY = new int[capacity];
+        System.arraycopy(edgeX, 0, newX, 0, edgeX.length);
+        System.arraycopy(edgeY, 0, newY, 0, edgeY.length);
+        edgeX = newX;
+        edgeY = newY;
+    }
+
+    /**
+     * @return Sum of the squared bins of the edge projection along the given angle.
+     */
+    private long score(float angle, int edges, int binCount, int reach)
+    {
+        double slope = Math.tan(Math.toRadians(angle));
+
+        for (int i = 0; i < binCount; i++)
+        {
+            bins[i] = 0;
+        }
+
+        for (int i = 0; i < edges; i++)
+        {
+            int bin = (int) Math.round(edgeY[i] - edgeX[i] * slope) + reach;
+            bins[bin]++;
+        }
+
+        long sum = 0;
+
+        for (int i = 0; i < binCount; i++)
+        {
+            sum += bins[i] * bins[i];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Straightens the line by shifting every column vertically around the center of the image.
+     * Pixels shifted in from outside repeat the nearest edge row.
+     *
+     * @param output A buffer to reuse if it holds at least width * height bytes, or null.
+     * @return The buffer holding the straightened luminance.
+     */
+    byte[] deskew(byte[] luminance, int width, int height, float angle, byte[] output)
+    {
+        int area = width * height;
+        byte[] result = output;
+
+        if (result == null || result.length < area)
+        {
+            result = new byte[area];
+        }
+
+        double slope = Math.tan(Math.toRadians(angle));
+        int center = width / 2;
+
+        if (shifts.length < width)
+        {
+            shifts = new int[width];
+        }
+
+        for (int x = 0; x < width; x++)
+        {
+            shifts[x] = (int) Math.round((x - center) * slope);
+        }
+
+        for (int y = 0; y < height; y++)
+        {
+            int row = y * width;
+
+            for (int x = 0; x < width; x++)
+            {
+                int sourceY = Math.min(height - 1, Math.max(0, y + shifts[x]));
+                result[row + x] = luminance[sourceY * width + x];
+            }
+        }
+
+        synchronized (this)
+        {
+            deskewCount++;
+        }
+
+        return result;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format(Locale.US, "estimated %d, deskewed %d, %.2f deg avg skew, %.3f ms avg",
+                             estimateCount,
+                             deskewCount,
+                             (estimateCount > 0) ? totalAbsoluteAngle / estimateCount : 0.0,
+                             (estimateCount > 0) ? totalNanos / 1e6 / estimateCount : 0.0);
+    }
+}
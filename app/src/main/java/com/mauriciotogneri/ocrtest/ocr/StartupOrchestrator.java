@@ -0,0 +1,241 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.mauriciotogneri.ocrtest.camera.CameraManager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Overlaps the slow steps of starting a capture: the camera is opened and its preview
+ * configuration worked out on a camera thread, while {@link OcrInitAsyncTask} installs the language
+ * data and initializes the engines, and the view system creates the preview surface. The preview is
+ * started once all three are ready, instead of opening the camera only after the engines are.
+ * <p>
+ * The camera thread also closes the camera, so a close always comes after an open still in
+ * progress. Every start keeps a timeline, logged at its first decode, so that regressions in
+ * startup time show up. Used from the main thread.
+ */
+final class StartupOrchestrator
+{
+    private static final String TAG = StartupOrchestrator.class.getSimpleName();
+
+    interface Callback
+    {
+        /**
+         * The camera, the engines and the preview surface are all ready; start the preview.
+         */
+        void onStartupJoined();
+
+        void onCameraFailed(Exception e);
+    }
+
+    enum Step
+    {
+        CAMERA_OPENED,
+        ENGINES_READY,
+        SURFACE_READY,
+        PREVIEW_STARTED,
+        FIRST_DECODE
+    }
+
+    private final CameraManager cameraManager;
+    private final Callback callback;
+    private final Handler mainHandler;
+    private final ExecutorService cameraExecutor;
+    private final long[] stepTimes;
+    private long startTime;
+    private int generation;
+    private boolean isCameraOpen;
+    private boolean isEnginesReady;
+    private boolean isSurfaceReady;
+    private boolean isJoined;
+
+    StartupOrchestrator(CameraManager cameraManager, Callback callback)
+    {
+        this.cameraManager = cameraManager;
+        this.callback = callback;
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.cameraExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                return new Thread(runnable, "CameraOpener");
+            }
+        });
+        this.stepTimes = new long[Step.values().length];
+    }
+
+    /**
+     * Starts opening the camera. The engines have to be reported ready again after every start.
+     */
+    void start()
+    {
+        final int startGeneration = ++generation;
+        startTime = SystemClock.elapsedRealtime();
+        Arrays.fill(stepTimes, -1);
+        isCameraOpen = false;
+        isEnginesReady = false;
+        isJoined = false;
+
+        if (isSurfaceReady)
+        {
+            // Kept from before a pause
+            mark(Step.SURFACE_READY);
+        }
+
+        cameraExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    cameraManager.open();
+                    onCameraOpened(startGeneration, null);
+                }
+                catch (IOException e)
+                {
+                    onCameraOpened(startGeneration, e);
+                }
+                catch (RuntimeException e)
+                {
+                    // The camera is in use by another app
+                    onCameraOpened(startGeneration, e);
+                }
+            }
+        });
+    }
+
+    private void onCameraOpened(final int startGeneration, final Exception error)
+    {
+        mainHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (startGeneration != generation)
+                {
+                    // Stopped meanwhile; the camera thread closes the camera after this open
+                    return;
+                }
+
+                if (error != null)
+                {
+                    callback.onCameraFailed(error);
+                    return;
+                }
+
+                isCameraOpen = true;
+                mark(Step.CAMERA_OPENED);
+                join();
+            }
+        });
+    }
+
+    void onEnginesReady()
+    {
+        isEnginesReady = true;
+        mark(Step.ENGINES_READY);
+        join();
+    }
+
+    void onSurfaceReady()
+    {
+        isSurfaceReady = true;
+        mark(Step.SURFACE_READY);
+        join();
+    }
+
+    void onSurfaceLost()
+    {
+        isSurfaceReady = false;
+    }
+
+    /**
+     * Marks the first decode of this start, and logs its timeline.
+     */
+    void onDecodeFinished()
+    {
+        if (stepTimes[Step.FIRST_DECODE.ordinal()] < 0)
+        {
+            mark(Step.FIRST_DECODE);
+            Log.d(TAG, "Startup: " + this);
+        }
+    }
+
+    private void join()
+    {
+        if (isCameraOpen && isEnginesReady && isSurfaceReady && !isJoined)
+        {
+            isJoined = true;
+            callback.onStartupJoined();
+            mark(Step.PREVIEW_STARTED);
+        }
+    }
+
+    /**
+     * Closes the camera on the camera thread, after any open still in progress.
+     */
+    void stop()
+    {
+        generation++;
+        isCameraOpen = false;
+        isJoined = false;
+
+        cameraExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                cameraManager.closeDriver();
+            }
+        });
+    }
+
+    /**
+     * Lets the camera thread finish a pending close, then ends it.
+     */
+    void shutdown()
+    {
+        cameraExecutor.shutdown();
+    }
+
+    private void mark(Step step)
+    {
+        if (stepTimes[step.ordinal()] < 0)
+        {
+            stepTimes[step.ordinal()] = SystemClock.elapsedRealtime() - startTime;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (Step step : Step.values())
+        {
+            long time = stepTimes[step.ordinal()];
+
+            if (builder.length() > 0)
+            {
+                builder.append(", ");
+            }
+
+            builder.append(step.name().toLowerCase(Locale.US).replace('_', ' '))
+                    .append((time >= 0) ? String.format(Locale.US, " +%d ms", time) : " -");
+        }
+
+        return builder.toString();
+    }
+}
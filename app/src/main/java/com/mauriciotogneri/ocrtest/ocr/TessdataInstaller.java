@@ -0,0 +1,459 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Installs language data from the application assets into the tessdata directory, and tells
+ * cheaply whether it is installed already.
+ * <p>
+ * Data shipped uncompressed in the APK (see {@code aaptOptions} in build.gradle) is copied straight
+ * from the asset's file descriptor with {@link FileChannel#transferTo}, without passing through a
+ * Java buffer; data shipped as a zip asset is inflated as before. Either way it is written to a
+ * temp file, checked, and renamed into place, so an interrupted install never leaves a partial file
+ * under the final name. If the APK also ships a {@code .sha1} asset for the file, the copy is
+ * checked against it.
+ * <p>
+ * A manifest next to the file records its size, its SHA-1 and the APK it came from. Later launches
+ * compare the manifest with the file size and the APK's update time only, without reading the data.
+ */
+final class TessdataInstaller
+{
+    private static final String TAG = TessdataInstaller.class.getSimpleName();
+
+    interface ProgressListener
+    {
+        void onProgress(int percentComplete);
+    }
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CHECKSUM_SUFFIX = ".sha1";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_SHA1 = "sha1";
+    private static final String KEY_SOURCE = "source";
+
+    /**
+     * Bytes copied between progress updates.
+     */
+    private static final long CHUNK_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final File tessdataDir;
+
+    TessdataInstaller(Context context, File tessdataDir)
+    {
+        this.context = context;
+        this.tessdataDir = tessdataDir;
+    }
+
+    /**
+     * @return True if the file was installed by this APK and still has the size it was installed
+     * with.
+     */
+    boolean isInstalled(String fileName)
+    {
+        File file = new File(tessdataDir, fileName);
+        Properties manifest = readManifest(fileName);
+
+        if (manifest == null)
+        {
+            return false;
+        }
+
+        return String.valueOf(file.length()).equals(manifest.getProperty(KEY_SIZE))
+                && String.valueOf(getSourceStamp()).equals(manifest.getProperty(KEY_SOURCE));
+    }
+
+    /**
+     * Installs the file from the assets, either as is or from a zip asset of the same name plus
+     * {@code .zip}. A file already in place that no asset provides, e.g. one copied by hand, is
+     * kept and recorded in a manifest as it is.
+     *
+     * @return True if the file is installed.
+     */
+    boolean install(String fileName, ProgressListener listener) throws IOException
+    {
+        File file = new File(tessdataDir, fileName);
+        File temp = new File(tessdataDir, fileName + TEMP_SUFFIX);
+        long start = System.currentTimeMillis();
+
+        // Left over from an interrupted install
+        delete(temp);
+
+        String sha1 = copyFromDescriptor(fileName, temp, listener);
+
+        if (sha1 == null)
+        {
+            sha1 = inflateFromZip(fileName, temp, listener);
+        }
+
+        if (sha1 == null)
+        {
+            delete(temp);
+            Log.d(TAG, fileName + " is not packaged in the application assets");
+
+            if (!file.exists())
+            {
+                return false;
+            }
+
+            // Copied by hand; record it, so that it is not looked for in the assets again
+            writeManifest(fileName, file.length(), hash(file));
+            return true;
+        }
+
+        String expectedSha1 = readChecksum(fileName);
+
+        if (expectedSha1 != null && !expectedSha1.equalsIgnoreCase(sha1))
+        {
+            delete(temp);
+            Log.e(TAG, "Checksum mismatch for " + fileName + ": " + sha1 + " instead of " + expectedSha1);
+            return false;
+        }
+
+        long size = temp.length();
+
+        if (!temp.renameTo(file))
+        {
+            delete(temp);
+            throw new IOException("Could not move " + temp + " to " + file);
+        }
+
+        writeManifest(fileName, size, sha1);
+        Log.d(TAG, String.format(Locale.US, "Installed %s (%d bytes, sha1 %s) in %d ms",
+                                 fileName, size, sha1, System.currentTimeMillis() - start));
+
+        return true;
+    }
+
+    /**
+     * @return The SHA-1 of the copy, or null if the file is not an uncompressed asset.
+     */
+    private String copyFromDescriptor(String fileName, File temp, ProgressListener listener) throws IOException
+    {
+        AssetFileDescriptor descriptor;
+
+        try
+        {
+            descriptor = context.getAssets().openFd(fileName);
+        }
+        catch (FileNotFoundException e)
+        {
+            // Missing, or compressed in the APK
+            return null;
+        }
+
+        FileInputStream input = null;
+        FileOutputStream output = null;
+
+        try
+        {
+            input = descriptor.createInputStream();
+            output = new FileOutputStream(temp);
+            FileChannel source = input.getChannel();
+            FileChannel destination = output.getChannel();
+            long offset = descriptor.getStartOffset();
+            long length = descriptor.getLength();
+            long copied = 0;
+
+            while (copied < length)
+            {
+                long count = source.transferTo(offset + copied, Math.min(CHUNK_SIZE, length - copied), destination);
+
+                if (count <= 0)
+                {
+                    throw new IOException("Copy of " + fileName + " stopped at " + copied + " of " + length + " bytes");
+                }
+
+                copied += count;
+                listener.onProgress((int) (copied * 100 / length));
+            }
+
+            destination.force(true);
+        }
+        finally
+        {
+            close(input);
+            close(output);
+            descriptor.close();
+        }
+
+        return hash(temp);
+    }
+
+    /**
+     * @return The SHA-1 of the inflated file, or null if there is no zip asset holding it.
+     */
+    private String inflateFromZip(String fileName, File temp, ProgressListener listener) throws IOException
+    {
+        InputStream asset;
+
+        try
+        {
+            asset = context.getAssets().open(fileName + ".zip");
+        }
+        catch (FileNotFoundException e)
+        {
+            return null;
+        }
+
+        ZipInputStream input = new ZipInputStream(new BufferedInputStream(asset, BUFFER_SIZE));
+
+        try
+        {
+            for (ZipEntry entry = input.getNextEntry(); entry != null; entry = input.getNextEntry())
+            {
+                if (!entry.isDirectory() && new File(entry.getName()).getName().equals(fileName))
+                {
+                    return inflate(input, entry.getSize(), temp, listener);
+                }
+            }
+
+            return null;
+        }
+        finally
+        {
+            close(input);
+        }
+    }
+
+    private static String inflate(InputStream input, long size, File temp, ProgressListener listener) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        FileOutputStream output = new FileOutputStream(temp);
+
+        try
+        {
+            // Note getSize() returns -1 when the zipfile does not have the size set
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long written = 0;
+            int lastPercent = -1;
+            int count;
+
+            while ((count = input.read(buffer)) != -1)
+            {
+                output.write(buffer, 0, count);
+                digest.update(buffer, 0, count);
+                written += count;
+
+                int percent = (size > 0) ? (int) (written * 100 / size) : 0;
+
+                if (percent != lastPercent)
+                {
+                    listener.onProgress(percent);
+                    lastPercent = percent;
+                }
+            }
+
+            output.getFD().sync();
+        }
+        finally
+        {
+            output.close();
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes a file through a memory mapping, so its contents are not copied onto the heap.
+     */
+    private static String hash(File file) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        FileInputStream input = new FileInputStream(file);
+
+        try
+        {
+            FileChannel channel = input.getChannel();
+            long length = channel.size();
+            long position = 0;
+
+            while (position < length)
+            {
+                long size = Math.min(Integer.MAX_VALUE, length - position);
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+                position += size;
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return The checksum shipped for the file, or null if there is none.
+     */
+    private String readChecksum(String fileName)
+    {
+        InputStream input = null;
+
+        try
+        {
+            input = context.getAssets().open(fileName + CHECKSUM_SUFFIX);
+            byte[] buffer = new byte[128];
+            int length = 0;
+            int count;
+
+            while (length < buffer.length && (count = input.read(buffer, length, buffer.length - length)) != -1)
+            {
+                length += count;
+            }
+
+            // Same format as sha1sum: the hash, then optionally the file name
+            String[] fields = new String(buffer, 0, length, "US-ASCII").trim().split("\\s+");
+            return (fields[0].length() > 0) ? fields[0] : null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            close(input);
+        }
+    }
+
+    private Properties readManifest(String fileName)
+    {
+        File manifestFile = new File(tessdataDir, fileName + MANIFEST_SUFFIX);
+
+        if (!manifestFile.exists())
+        {
+            return null;
+        }
+
+        FileInputStream input = null;
+
+        try
+        {
+            input = new FileInputStream(manifestFile);
+            Properties manifest = new Properties();
+            manifest.load(input);
+            return manifest;
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Could not read " + manifestFile, e);
+            return null;
+        }
+        finally
+        {
+            close(input);
+        }
+    }
+
+    private void writeManifest(String fileName, long size, String sha1) throws IOException
+    {
+        Properties manifest = new Properties();
+        manifest.setProperty(KEY_SIZE, String.valueOf(size));
+        manifest.setProperty(KEY_SHA1, sha1);
+        manifest.setProperty(KEY_SOURCE, String.valueOf(getSourceStamp()));
+
+        File manifestFile = new File(tessdataDir, fileName + MANIFEST_SUFFIX);
+        File temp = new File(tessdataDir, fileName + MANIFEST_SUFFIX + TEMP_SUFFIX);
+        FileOutputStream output = new FileOutputStream(temp);
+
+        try
+        {
+            manifest.store(output, null);
+            output.getFD().sync();
+        }
+        finally
+        {
+            output.close();
+        }
+
+        if (!temp.renameTo(manifestFile))
+        {
+            delete(temp);
+            throw new IOException("Could not move " + temp + " to " + manifestFile);
+        }
+    }
+
+    /**
+     * @return When the APK the assets come from was installed or updated, or 0 if unknown.
+     */
+    private long getSourceStamp()
+    {
+        try
+        {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        }
+        catch (PackageManager.NameNotFoundException e)
+        {
+            return 0;
+        }
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // Every Java platform has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes)
+        {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return builder.toString();
+    }
+
+    private static void delete(File file)
+    {
+        if (file.exists() && !file.delete())
+        {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    private static void close(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+                // continue
+            }
+        }
+    }
+}
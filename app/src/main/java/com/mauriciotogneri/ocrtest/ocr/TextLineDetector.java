@@ -0,0 +1,288 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import java.util.Locale;
+
+/**
+ * Quick test for a line of printed text in the framing rectangle, so that frames showing no text,
+ * e.g. while the user is still aiming the camera, are not sent to Tesseract at all.
+ * <p>
+ * Each sampled row of the half-resolution pyramid level is scanned for horizontal luminance edges. The horizontal projection of those
+ * edges must form a band of rows with the height of a text line, and inside that band the edge
+ * density and the widths of the runs between opposite edges (strokes and the gaps between them)
+ * must look like characters rather than texture or large shapes.
+ * <p>
+ * Uses preallocated arrays and must only be called from one thread, the decode thread.
+ */
+final class TextLineDetector
+{
+    /**
+     * Rough number of rows sampled per frame.
+     */
+    private static final int TARGET_ROWS = 96;
+
+    /**
+     * Longest run between edges that is counted; longer runs are counted as this one.
+     */
+    private static final int MAX_RUN_WIDTH = 63;
+
+    private final int edgeThreshold;
+    private final float minRowEdgeDensity;
+    private final float maxEdgeDensity;
+    private final float minLineHeight;
+    private final float maxLineHeight;
+
+    private int[] rowEdges;
+    private final int[] runWidths;
+    private int lineTop;
+    private int lineBottom;
+
+    private long detectedCount;
+    private long skippedCount;
+    private long totalNanos;
+
+    /**
+     * @param edgeThreshold     Minimum luminance step between neighbouring pixels for an edge.
+     * @param minRowEdgeDensity Minimum share of pixels of a row that are edges for the row to belong
+     *                          to a text line.
+     * @param maxEdgeDensity    Maximum share of edge pixels inside the text line; denser rows are
+     *                          texture or noise.
+     * @param minLineHeight     Minimum height of the text line, as a share of the region height.
+     * @param maxLineHeight     Maximum height of the text line, as a share of the region height.
+     */
+    TextLineDetector(int edgeThreshold, float minRowEdgeDensity, float maxEdgeDensity, float minLineHeight, float maxLineHeight)
+    {
+        this.edgeThreshold = edgeThreshold;
+        this.minRowEdgeDensity = minRowEdgeDensity;
+        this.maxEdgeDensity = maxEdgeDensity;
+        this.minLineHeight = minLineHeight;
+        this.maxLineHeight = maxLineHeight;
+        this.rowEdges = new int[TARGET_ROWS * 2];
+        this.runWidths = new int[MAX_RUN_WIDTH + 1];
+    }
+
+    /**
+     * @return True if the image plausibly holds a line of text. The line is then available through
+     * {@link #getLineTop()} and {@link #getLineBottom()}.
+     */
+    boolean detect(FrameAnalysis analysis)
+    {
+        long start = System.nanoTime();
+        boolean detected = findTextLine(analysis.getLevel(1),
+                                        analysis.getLevelOffset(1),
+                                        analysis.getLevelStride(1),
+                                        analysis.getLevelWidth(1),
+                                        analysis.getLevelHeight(1));
+
+        if (detected)
+        {
+            // Back to full resolution
+            lineTop *= 2;
+            lineBottom = Math.min(analysis.getHeight(), lineBottom * 2);
+        }
+
+        synchronized (this)
+        {
+            totalNanos += System.nanoTime() - start;
+
+            if (detected)
+            {
+                detectedCount++;
+            }
+            else
+            {
+                skippedCount++;
+            }
+        }
+
+        return detected;
+    }
+
+    private boolean findTextLine(byte[] data, int offset, int stride, int width, int height)
+    {
+        if (width < 2 || height < 2)
+        {
+            return false;
+        }
+
+        int step = Math.max(1, height / TARGET_ROWS);
+        int rows = (height + step - 1) / step;
+
+        if (rowEdges.length < rows)
+        {
+            rowEdges = new int[rows];
+        }
+
+        // Horizontal projection of the edges
+        for (int r = 0; r < rows; r++)
+        {
+            rowEdges[r] = countEdges(data, offset + r * step * stride, width, false);
+        }
+
+        // Longest band of rows dense enough in edges, bridging single sparse rows
+        int minRowEdges = Math.max(1, (int) (width * minRowEdgeDensity));
+        int bestStart = -1;
+        int bestEnd = -1;
+        int bandStart = -1;
+        int lastDense = -2;
+
+        for (int r = 0; r < rows; r++)
+        {
+            if (rowEdges[r] < minRowEdges)
+            {
+                continue;
+            }
+
+            if (r - lastDense > 2)
+            {
+                bandStart = r;
+            }
+
+            lastDense = r;
+
+            if (bestStart < 0 || r - bandStart > bestEnd - bestStart)
+            {
+                bestStart = bandStart;
+                bestEnd = r;
+            }
+        }
+
+        if (bestStart < 0)
+        {
+            return false;
+        }
+
+        int bandHeight = (bestEnd - bestStart + 1) * step;
+
+        if (bandHeight < minLineHeight * height || bandHeight > maxLineHeight * height)
+        {
+            return false;
+        }
+
+        // Edge density and run widths inside the band
+        for (int i = 0; i < runWidths.length; i++)
+        {
+            runWidths[i] = 0;
+        }
+
+        long edges = 0;
+
+        for (int r = bestStart; r <= bestEnd; r++)
+        {
+            edges += countEdges(data, offset + r * step * stride, width, true);
+        }
+
+        if (edges > maxEdgeDensity * width * (bestEnd - bestStart + 1))
+        {
+            return false;
+        }
+
+        // Characters are made of strokes and gaps narrower than the line is tall
+        int runs = 0;
+
+        for (int w = 1; w < runWidths.length; w++)
+        {
+            runs += runWidths[w];
+        }
+
+        if (runs == 0)
+        {
+            return false;
+        }
+
+        int median = 0;
+
+        for (int w = 1, seen = 0; w < runWidths.length; w++)
+        {
+            seen += runWidths[w];
+
+            if (seen * 2 >= runs)
+            {
+                median = w;
+                break;
+            }
+        }
+
+        if (median > bandHeight / 2 && median < MAX_RUN_WIDTH)
+        {
+            return false;
+        }
+
+        lineTop = bestStart * step;
+        lineBottom = Math.min(height, (bestEnd + 1) * step);
+        return true;
+    }
+
+    /**
+     * Counts the edges along one row. An edge is a luminance step of at least the threshold between
+     * neighbouring pixels; consecutive steps in the same direction count once.
+     *
+     * @param recordRuns True to add the distances between edges of opposite direction to
+     *                   {@link #runWidths}.
+     */
+    private int countEdges(byte[] data, int rowOffset, int width, boolean recordRuns)
+    {
+        int edges = 0;
+        int lastSign = 0;
+        int lastEdge = -1;
+        int previous = data[rowOffset] & 0xff;
+
+        for (int x = 1; x < width; x++)
+        {
+            int current = data[rowOffset + x] & 0xff;
+            int difference = current - previous;
+            previous = current;
+
+            int sign = (difference >= edgeThreshold) ? 1 : ((difference <= -edgeThreshold) ? -1 : 0);
+
+            if (sign == 0 || sign == lastSign)
+            {
+                continue;
+            }
+
+            if (recordRuns && lastSign != 0)
+            {
+                runWidths[Math.min(x - lastEdge, MAX_RUN_WIDTH)]++;
+            }
+
+            edges++;
+            lastSign = sign;
+            lastEdge = x;
+        }
+
+        return edges;
+    }
+
+    /**
+     * @return First row of the text line found by the last successful {@link #detect} call.
+     */
+    int getLineTop()
+    {
+        return lineTop;
+    }
+
+    /**
+     * @return Row after the text line found by the last successful {@link #detect} call.
+     */
+    int getLineBottom()
+    {
+        return lineBottom;
+    }
+
+    synchronized long getDetectedCount()
+    {
+        return detectedCount;
+    }
+
+    synchronized long getSkippedCount()
+    {
+        return skippedCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        long count = detectedCount + skippedCount;
+        return String.format(Locale.US, "detected %d, skipped %d, %.3f ms avg",
+                             detectedCount, skippedCount, (count > 0) ? totalNanos / 1e6 / count : 0.0);
+    }
+}
@@ -0,0 +1,38 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+/**
+ * Runs several validators in order. The chain rejects a candidate as soon as one validator does,
+ * and verifies it if at least one validator verifies it and none rejects it.
+ */
+public final class ValidatorChain implements NumberValidator
+{
+    private final NumberValidator[] validators;
+
+    public ValidatorChain(NumberValidator... validators)
+    {
+        this.validators = validators;
+    }
+
+    @Override
+    public Result validate(CharSequence digits, int start, int end)
+    {
+        Result result = Result.UNVERIFIED;
+
+        for (NumberValidator validator : validators)
+        {
+            Result current = validator.validate(digits, start, end);
+
+            if (current == Result.INVALID)
+            {
+                return Result.INVALID;
+            }
+
+            if (current == Result.VERIFIED)
+            {
+                result = Result.VERIFIED;
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+package com.mauriciotogneri.ocrtest.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewBufferRingTest
+{
+    private final PreviewBufferRing ring = new PreviewBufferRing(3, 16);
+    private final QueueSink sink = new QueueSink();
+
+    @Test
+    public void attachQueuesEveryBuffer()
+    {
+        ring.attach(sink);
+
+        assertEquals(3, sink.queue.size());
+        assertEquals(3, ring.getQueuedCount());
+        assertEquals(0, ring.getHeldCount());
+    }
+
+    @Test
+    public void cyclesTheSameBuffers()
+    {
+        ring.attach(sink);
+        Map<byte[], Boolean> seen = new IdentityHashMap<byte[], Boolean>();
+
+        for (int i = 0; i < 30; i++)
+        {
+            byte[] frame = sink.fill();
+            assertTrue(ring.onFrameDelivered(frame));
+            assertTrue(ring.recycle(frame));
+            seen.put(frame, Boolean.TRUE);
+        }
+
+        assertEquals(3, seen.size());
+        assertEquals(30, ring.getDeliveredCount());
+        assertEquals(30, ring.getRecycleCount());
+        assertEquals(3, ring.getQueuedCount());
+    }
+
+    @Test
+    public void heldBuffersAreNotQueued()
+    {
+        ring.attach(sink);
+        byte[] frame = sink.fill();
+        ring.onFrameDelivered(frame);
+
+        assertEquals(2, ring.getQueuedCount());
+        assertEquals(1, ring.getHeldCount());
+    }
+
+    @Test
+    public void ignoresDoubleRecyclesAndForeignBuffers()
+    {
+        ring.attach(sink);
+        byte[] frame = sink.fill();
+        ring.onFrameDelivered(frame);
+
+        assertTrue(ring.recycle(frame));
+        assertFalse(ring.recycle(frame));
+        assertFalse(ring.recycle(new byte[16]));
+        assertFalse(ring.onFrameDelivered(new byte[16]));
+        assertFalse(ring.owns(null));
+        assertEquals(3, ring.getQueuedCount());
+    }
+
+    @Test
+    public void parksBuffersWhileDetached()
+    {
+        ring.attach(sink);
+        byte[] held = sink.fill();
+        ring.onFrameDelivered(held);
+        ring.detach();
+
+        // Buffers the camera had are parked; the held one is parked when it comes back
+        assertEquals(0, ring.getQueuedCount());
+        assertTrue(ring.recycle(held));
+
+        QueueSink next = new QueueSink();
+        ring.attach(next);
+
+        assertEquals(3, next.queue.size());
+        assertEquals(3, ring.getQueuedCount());
+    }
+
+    @Test
+    public void bufferRecycledAfterDetachGoesToTheNextSink()
+    {
+        ring.attach(sink);
+        byte[] held = sink.fill();
+        ring.onFrameDelivered(held);
+        ring.detach();
+
+        QueueSink next = new QueueSink();
+        ring.attach(next);
+        assertEquals(2, next.queue.size());
+
+        ring.recycle(held);
+
+        assertEquals(3, next.queue.size());
+        assertSame(held, next.queue.peekLast());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAPositiveCapacity()
+    {
+        new PreviewBufferRing(0, 16);
+    }
+
+    /**
+     * Stands in for the camera: fills queued buffers in order.
+     */
+    private static final class QueueSink implements PreviewBufferRing.BufferSink
+    {
+        private final ArrayDeque<byte[]> queue = new ArrayDeque<byte[]>();
+
+        @Override
+        public void queueBuffer(byte[] buffer)
+        {
+            queue.add(buffer);
+        }
+
+        private byte[] fill()
+        {
+            return queue.poll();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BandFusionTest
+{
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 32;
+    private static final int MARGIN = 8;
+
+    @Test
+    public void hasNothingToDoWithOneFrameAtFullScale()
+    {
+        BandFusion fusion = new BandFusion(3, BandFusion.Method.MEAN, 1, 1000);
+
+        assertNull(fusion.fuse(texture(1, 0, 0), WIDTH, HEIGHT, null));
+    }
+
+    @Test
+    public void upscalesASingleFrame()
+    {
+        BandFusion fusion = new BandFusion(3, BandFusion.Method.MEAN, 2, 1000);
+        byte[] frame = new byte[WIDTH * HEIGHT];
+        Arrays.fill(frame, (byte) 90);
+
+        byte[] fused = fusion.fuse(frame, WIDTH, HEIGHT, null);
+
+        assertEquals(2 * WIDTH, fusion.getFusedWidth());
+        assertEquals(2 * HEIGHT, fusion.getFusedHeight());
+        assertEquals(90, fused[0] & 0xff);
+        assertEquals(90, fused[fused.length - 1] & 0xff);
+    }
+
+    @Test
+    public void registersShiftedFramesAgainstTheNewest()
+    {
+        BandFusion fusion = new BandFusion(3, BandFusion.Method.MEDIAN, 1, 1000);
+        fusion.fuse(texture(1, 3, 1), WIDTH, HEIGHT, null);
+        fusion.fuse(texture(1, -2, 0), WIDTH, HEIGHT, null);
+
+        byte[] newest = texture(1, 0, 2);
+        byte[] fused = fusion.fuse(newest, WIDTH, HEIGHT, null);
+
+        assertNotNull(fused);
+        assertTrue(interiorError(fused, newest) < 1.0);
+    }
+
+    @Test
+    public void averagingReducesNoise()
+    {
+        BandFusion fusion = new BandFusion(4, BandFusion.Method.MEAN, 1, 1000);
+        byte[] clean = texture(1, 0, 0);
+        byte[] noisy = null;
+        byte[] fused = null;
+
+        for (int i = 0; i < 4; i++)
+        {
+            noisy = addNoise(clean, 100 + i);
+            fused = fusion.fuse(noisy, WIDTH, HEIGHT, null);
+        }
+
+        assertNotNull(fused);
+        assertTrue(interiorError(fused, clean) < 0.7 * interiorError(noisy, clean));
+    }
+
+    @Test
+    public void leavesOutFramesOfSomethingElse()
+    {
+        BandFusion fusion = new BandFusion(3, BandFusion.Method.MEAN, 1, 1000);
+        fusion.fuse(texture(1, 0, 0), WIDTH, HEIGHT, null);
+
+        assertNull(fusion.fuse(texture(2, 0, 0), WIDTH, HEIGHT, null));
+    }
+
+    @Test
+    public void leavesOutFramesThatAreTooOld()
+    {
+        BandFusion fusion = new BandFusion(3, BandFusion.Method.MEAN, 1, 0);
+        fusion.fuse(texture(1, 0, 0), WIDTH, HEIGHT, null);
+
+        assertNull(fusion.fuse(texture(1, 0, 0), WIDTH, HEIGHT, null));
+    }
+
+    @Test
+    public void resetForgetsStoredFrames()
+    {
+        BandFusion fusion = new BandFusion(3, BandFusion.Method.MEAN, 1, 1000);
+        fusion.fuse(texture(1, 0, 0), WIDTH, HEIGHT, null);
+        fusion.reset();
+
+        assertNull(fusion.fuse(texture(1, 0, 0), WIDTH, HEIGHT, null));
+    }
+
+    @Test
+    public void reusesALargeEnoughOutputBuffer()
+    {
+        BandFusion fusion = new BandFusion(3, BandFusion.Method.MEAN, 1, 1000);
+        byte[] output = new byte[WIDTH * HEIGHT];
+        fusion.fuse(texture(1, 0, 0), WIDTH, HEIGHT, output);
+
+        assertTrue(fusion.fuse(texture(1, 0, 0), WIDTH, HEIGHT, output) == output);
+    }
+
+    /**
+     * Smooth random texture, seen through a window moved by the given offset.
+     */
+    private static byte[] texture(long seed, int shiftX, int shiftY)
+    {
+        int sourceWidth = WIDTH + 2 * MARGIN;
+        int sourceHeight = HEIGHT + 2 * MARGIN;
+        Random random = new Random(seed);
+        int[] source = new int[sourceWidth * sourceHeight];
+
+        for (int i = 0; i < source.length; i++)
+        {
+            source[i] = random.nextInt(256);
+        }
+
+        byte[] frame = new byte[WIDTH * HEIGHT];
+
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            for (int x = 0; x < WIDTH; x++)
+            {
+                int sum = 0;
+
+                for (int j = 0; j < 2; j++)
+                {
+                    for (int i = 0; i < 2; i++)
+                    {
+                        sum += source[(y + MARGIN + shiftY + j) * sourceWidth + x + MARGIN + shiftX + i];
+                    }
+                }
+
+                frame[y * WIDTH + x] = (byte) (sum / 4);
+            }
+        }
+
+        return frame;
+    }
+
+    private static byte[] addNoise(byte[] frame, long seed)
+    {
+        Random random = new Random(seed);
+        byte[] noisy = new byte[frame.length];
+
+        for (int i = 0; i < frame.length; i++)
+        {
+            int value = (frame[i] & 0xff) + (int) (random.nextGaussian() * 20);
+            noisy[i] = (byte) Math.max(0, Math.min(255, value));
+        }
+
+        return noisy;
+    }
+
+    /**
+     * @return Mean absolute difference away from the borders, where shifted frames have no samples.
+     */
+    private static double interiorError(byte[] image, byte[] expected)
+    {
+        long sum = 0;
+        int count = 0;
+
+        for (int y = MARGIN; y < HEIGHT - MARGIN; y++)
+        {
+            for (int x = MARGIN; x < WIDTH - MARGIN; x++)
+            {
+                sum += Math.abs((image[y * WIDTH + x] & 0xff) - (expected[y * WIDTH + x] & 0xff));
+                count++;
+            }
+        }
+
+        return (double) sum / count;
+    }
+}
@@ -0,0 +1,122 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DigitSequenceScannerTest
+{
+    private final DigitSequenceScanner scanner = new DigitSequenceScanner(8, " -.", 2);
+
+    @Test
+    public void findsAnUngroupedNumber()
+    {
+        scanner.reset("ID 12345678 x");
+
+        assertTrue(scanner.next());
+        assertEquals("12345678", scanner.getDigits().toString());
+        assertEquals(3, scanner.getStart());
+        assertEquals(11, scanner.getEnd());
+        assertEquals(1, scanner.getFirstWord());
+        assertEquals(1, scanner.getLastWord());
+        assertFalse(scanner.next());
+    }
+
+    @Test
+    public void joinsGroupsAcrossShortSeparatorRuns()
+    {
+        assertEquals(Arrays.asList("12345678"), scan("1234 5678"));
+        assertEquals(Arrays.asList("12345678"), scan("1234-5678"));
+        assertEquals(Arrays.asList("12345678"), scan("12.34. 5678"));
+    }
+
+    @Test
+    public void doesNotJoinGroupsAcrossLongSeparatorRuns()
+    {
+        assertEquals(Arrays.<String>asList(), scan("1234 - 5678"));
+        assertEquals(Arrays.<String>asList(), scan("1234   5678"));
+    }
+
+    @Test
+    public void doesNotJoinGroupsAcrossOtherCharacters()
+    {
+        assertEquals(Arrays.<String>asList(), scan("1234/5678"));
+    }
+
+    @Test
+    public void reportsRunsOneDigitShortOrLong()
+    {
+        assertEquals(Arrays.asList("1234567"), scan("1234 567"));
+        assertEquals(Arrays.asList("123456789"), scan("12345 6789"));
+    }
+
+    @Test
+    public void ignoresRunsTwoOrMoreDigitsOff()
+    {
+        assertEquals(Arrays.<String>asList(), scan("123456"));
+        assertEquals(Arrays.<String>asList(), scan("1234567890"));
+    }
+
+    @Test
+    public void reportsTheFirstWindowOfWholeGroupsInALongerRun()
+    {
+        assertEquals(Arrays.asList("12345678"), scan("1234 5678 9012"));
+    }
+
+    @Test
+    public void countsWordsOfGroupedMatches()
+    {
+        scanner.reset("No. 1234 5678");
+
+        assertTrue(scanner.next());
+        assertEquals(1, scanner.getFirstWord());
+        assertEquals(2, scanner.getLastWord());
+        assertEquals(4, scanner.getStart());
+        assertEquals(13, scanner.getEnd());
+    }
+
+    @Test
+    public void findsEveryMatchInTheText()
+    {
+        assertEquals(Arrays.asList("12345678", "87654321"), scan("12345678 and\n87654321"));
+    }
+
+    @Test
+    public void canBeReusedForAnotherText()
+    {
+        scan("12345678");
+
+        assertEquals(Arrays.asList("87654321"), scan("87654321"));
+    }
+
+    @Test
+    public void findsTheHealthCardNumber()
+    {
+        DigitSequenceScanner cardScanner = new DigitSequenceScanner(20, " -.", 2);
+        cardScanner.reset("8. Kennnummer der Karte 9. Ablaufdatum\n80756002901234567890 31.03.2022");
+
+        assertTrue(cardScanner.next());
+        assertEquals("80756002901234567890", cardScanner.getDigits().toString());
+        assertEquals(6, cardScanner.getFirstWord());
+        assertFalse(cardScanner.next());
+    }
+
+    private List<String> scan(String text)
+    {
+        List<String> matches = new ArrayList<String>();
+        scanner.reset(text);
+
+        while (scanner.next())
+        {
+            matches.add(scanner.getDigits().toString());
+        }
+
+        return matches;
+    }
+}
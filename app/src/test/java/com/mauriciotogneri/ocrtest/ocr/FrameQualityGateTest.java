@@ -0,0 +1,128 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameQualityGateTest
+{
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void flatImageHasNoSharpness()
+    {
+        byte[] image = new byte[WIDTH * HEIGHT];
+        Arrays.fill(image, (byte) 128);
+
+        assertEquals(0f, sharpness(image), 0f);
+    }
+
+    @Test
+    public void sharpEdgesScoreHigherThanBlurredOnes()
+    {
+        byte[] sharp = stripes();
+        byte[] blurred = blur(blur(sharp));
+
+        float sharpScore = sharpness(sharp);
+        float blurredScore = sharpness(blurred);
+
+        assertTrue(sharpScore > 0f);
+        assertTrue(sharpScore > 4 * blurredScore);
+    }
+
+    @Test
+    public void readsOnlyTheGivenRegion()
+    {
+        byte[] image = stripes();
+        int stride = WIDTH + 16;
+        int offset = 8 * stride + 8;
+        byte[] padded = new byte[(HEIGHT + 16) * stride];
+
+        // Noise around the region must not change the result
+        for (int i = 0; i < padded.length; i++)
+        {
+            padded[i] = (byte) (i * 31);
+        }
+
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            System.arraycopy(image, y * WIDTH, padded, offset + y * stride, WIDTH);
+        }
+
+        assertEquals(sharpness(image), FrameQualityGate.measureSharpness(padded, offset, stride, WIDTH, HEIGHT, 1), 1e-3f);
+    }
+
+    @Test
+    public void widerSpacingLooksAtCoarserDetail()
+    {
+        byte[] image = stripes();
+
+        // Stripes one pixel wide vanish under a kernel whose taps are two pixels apart
+        assertEquals(0f, FrameQualityGate.measureSharpness(image, 0, WIDTH, WIDTH, HEIGHT, 2), 0f);
+        assertTrue(sharpness(image) > 0f);
+    }
+
+    @Test
+    public void imagesTooSmallForTheKernelHaveNoSharpness()
+    {
+        byte[] image = stripes();
+
+        assertEquals(0f, FrameQualityGate.measureSharpness(image, 0, WIDTH, 2, 2, 1), 0f);
+        assertEquals(0f, FrameQualityGate.measureSharpness(image, 0, WIDTH, 4, 4, 2), 0f);
+    }
+
+    private static float sharpness(byte[] image)
+    {
+        return FrameQualityGate.measureSharpness(image, 0, WIDTH, WIDTH, HEIGHT, 1);
+    }
+
+    /**
+     * Vertical black and white stripes, one pixel wide.
+     */
+    private static byte[] stripes()
+    {
+        byte[] image = new byte[WIDTH * HEIGHT];
+
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            for (int x = 0; x < WIDTH; x++)
+            {
+                image[y * WIDTH + x] = (byte) ((x % 2 == 0) ? 20 : 230);
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * 3x3 box blur, leaving the border as it is.
+     */
+    private static byte[] blur(byte[] image)
+    {
+        byte[] result = image.clone();
+
+        for (int y = 1; y < HEIGHT - 1; y++)
+        {
+            for (int x = 1; x < WIDTH - 1; x++)
+            {
+                int sum = 0;
+
+                for (int j = -1; j <= 1; j++)
+                {
+                    for (int i = -1; i <= 1; i++)
+                    {
+                        sum += image[(y + j) * WIDTH + x + i] & 0xff;
+                    }
+                }
+
+                result[y * WIDTH + x] = (byte) (sum / 9);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,49 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LuhnValidatorTest
+{
+    private final LuhnValidator validator = new LuhnValidator();
+
+    @Test
+    public void verifiesKnownNumbers()
+    {
+        assertEquals(NumberValidator.Result.VERIFIED, validate("79927398713"));
+        assertEquals(NumberValidator.Result.VERIFIED, validate("4111111111111111"));
+        assertEquals(NumberValidator.Result.VERIFIED, validate("89014103211118510720"));
+    }
+
+    @Test
+    public void rejectsASingleWrongDigit()
+    {
+        assertEquals(NumberValidator.Result.INVALID, validate("79927398710"));
+        assertEquals(NumberValidator.Result.INVALID, validate("4111111111111112"));
+    }
+
+    @Test
+    public void rejectsSwappedAdjacentDigits()
+    {
+        assertEquals(NumberValidator.Result.INVALID, validate("79927398731"));
+    }
+
+    @Test
+    public void rejectsTheHealthCardNumber()
+    {
+        // Has no Luhn check digit, which is why the checksum is off by default
+        assertEquals(NumberValidator.Result.INVALID, validate("80756002901234567890"));
+    }
+
+    @Test
+    public void checksOnlyTheGivenRange()
+    {
+        assertEquals(NumberValidator.Result.VERIFIED, validator.validate("No. 79927398713.", 4, 15));
+    }
+
+    private NumberValidator.Result validate(String digits)
+    {
+        return validator.validate(digits, 0, digits.length());
+    }
+}
@@ -0,0 +1,48 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class Mod97ValidatorTest
+{
+    private final Mod97Validator validator = new Mod97Validator();
+
+    @Test
+    public void verifiesKnownIbans()
+    {
+        // DE89 3704 0044 0532 0130 00, and GB82 WEST 1234 5698 7654 32, with the country code and
+        // check digits moved to the end and the letters turned into numbers
+        assertEquals(NumberValidator.Result.VERIFIED, validate("370400440532013000131489"));
+        assertEquals(NumberValidator.Result.VERIFIED, validate("3214282912345698765432161182"));
+    }
+
+    @Test
+    public void rejectsAWrongCheckDigit()
+    {
+        assertEquals(NumberValidator.Result.INVALID, validate("370400440532013000131488"));
+    }
+
+    @Test
+    public void rejectsSwappedAdjacentDigits()
+    {
+        assertEquals(NumberValidator.Result.INVALID, validate("374000440532013000131489"));
+    }
+
+    @Test
+    public void rejectsOtherNumbers()
+    {
+        assertEquals(NumberValidator.Result.INVALID, validate("12345678901234567890"));
+    }
+
+    @Test
+    public void checksOnlyTheGivenRange()
+    {
+        assertEquals(NumberValidator.Result.VERIFIED, validator.validate("x370400440532013000131489x", 1, 25));
+    }
+
+    private NumberValidator.Result validate(String digits)
+    {
+        return validator.validate(digits, 0, digits.length());
+    }
+}
@@ -0,0 +1,222 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays simulated sequences of continuous results through the consensus, the way
+ * {@link CaptureActivity} feeds it, and through the rule it replaced: accept the first 20-digit
+ * token of a frame. Reports the frames needed to accept and the wrong accepts of both, and checks
+ * that the consensus accepts fewer wrong numbers. It does take more frames: the old rule accepts the
+ * first full-length read, right or wrong.
+ * <p>
+ * A frame is either read while the user is still aiming, holding no number, or read from the
+ * number with per-digit substitutions between look-alike digits, and now and then a dropped or
+ * doubled digit. Misreads are as confident as clean reads, which is the case the consensus is for.
+ */
+public class NumberConsensusReplayTest
+{
+    private static final int LENGTH = 20;
+    private static final int SEQUENCES = 2000;
+    private static final int MAX_FRAMES = 30;
+    private static final float AIMING_RATE = 0.3f;
+    private static final float DROP_RATE = 0.05f;
+    private static final float DOUBLE_RATE = 0.05f;
+
+    /**
+     * Digits OCR confuses with each digit.
+     */
+    private static final String[] LOOK_ALIKES = {"86", "74", "7", "8", "19", "6", "58", "1", "306", "0"};
+
+    @Test
+    public void cleanReads()
+    {
+        replay("clean", 0.005f);
+    }
+
+    @Test
+    public void typicalReads()
+    {
+        replay("typical", 0.02f);
+    }
+
+    @Test
+    public void poorReads()
+    {
+        replay("poor", 0.05f);
+    }
+
+    private void replay(String name, float substitutionRate)
+    {
+        Random random = new Random(42);
+        Outcome old = new Outcome();
+        Outcome voted = new Outcome();
+        DigitSequenceScanner scanner = new DigitSequenceScanner(LENGTH, " -.", 2);
+        NumberConsensus consensus = new NumberConsensus(LENGTH, 5, 2, 0.6f);
+        StringBuilder candidate = new StringBuilder();
+
+        for (int s = 0; s < SEQUENCES; s++)
+        {
+            String number = randomNumber(random);
+            String oldAccepted = null;
+            String votedAccepted = null;
+            consensus.reset();
+
+            for (int frame = 1; frame <= MAX_FRAMES && (oldAccepted == null || votedAccepted == null); frame++)
+            {
+                String text = readFrame(random, number, substitutionRate);
+                int confidence = 60 + random.nextInt(31);
+
+                if (oldAccepted == null)
+                {
+                    oldAccepted = extractOld(text);
+                    old.record(oldAccepted, number, frame);
+                }
+
+                if (votedAccepted == null && findCandidate(scanner, text, candidate))
+                {
+                    votedAccepted = consensus.offer(candidate, confidence);
+                    voted.record(votedAccepted, number, frame);
+                }
+            }
+
+            old.finish(oldAccepted);
+            voted.finish(votedAccepted);
+        }
+
+        System.out.println(String.format(Locale.US, "Replay %s (%.1f%% misread digits): first 20-digit token %s; consensus %s",
+                                         name, substitutionRate * 100, old, voted));
+
+        assertTrue(voted.wrong < old.wrong);
+    }
+
+    private static String randomNumber(Random random)
+    {
+        char[] digits = new char[LENGTH];
+
+        for (int i = 0; i < LENGTH; i++)
+        {
+            digits[i] = (char) ('0' + random.nextInt(10));
+        }
+
+        return new String(digits);
+    }
+
+    private static String readFrame(Random random, String number, float substitutionRate)
+    {
+        if (random.nextFloat() < AIMING_RATE)
+        {
+            return (random.nextBoolean()) ? "" : "Vers. Nr. 0" + random.nextInt(100);
+        }
+
+        StringBuilder read = new StringBuilder("Nr. ");
+
+        for (int i = 0; i < number.length(); i++)
+        {
+            char digit = number.charAt(i);
+
+            if (random.nextFloat() < substitutionRate)
+            {
+                String lookAlikes = LOOK_ALIKES[digit - '0'];
+                digit = lookAlikes.charAt(random.nextInt(lookAlikes.length()));
+            }
+
+            read.append(digit);
+        }
+
+        float edit = random.nextFloat();
+
+        if (edit < DROP_RATE)
+        {
+            read.deleteCharAt(4 + random.nextInt(LENGTH));
+        }
+        else if (edit < DROP_RATE + DOUBLE_RATE)
+        {
+            int index = 4 + random.nextInt(LENGTH);
+            read.insert(index, read.charAt(index));
+        }
+
+        return read.toString();
+    }
+
+    /**
+     * The rule the consensus replaced.
+     */
+    private static String extractOld(String text)
+    {
+        for (String part : text.split("\\W+"))
+        {
+            if (part.length() == LENGTH && part.matches("\\d+"))
+            {
+                return part;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Picks the candidate of a frame as {@link CaptureActivity} does: a full-length one first.
+     */
+    private static boolean findCandidate(DigitSequenceScanner scanner, String text, StringBuilder candidate)
+    {
+        boolean isFound = false;
+        scanner.reset(text);
+
+        while (scanner.next())
+        {
+            CharSequence digits = scanner.getDigits();
+
+            if (!isFound || digits.length() == LENGTH)
+            {
+                candidate.setLength(0);
+                candidate.append(digits);
+                isFound = true;
+            }
+        }
+
+        return isFound;
+    }
+
+    private static final class Outcome
+    {
+        private int accepted;
+        private int wrong;
+        private long frames;
+
+        private void record(String acceptedNumber, String number, int frame)
+        {
+            if (acceptedNumber != null)
+            {
+                accepted++;
+                frames += frame;
+                wrong += acceptedNumber.equals(number) ? 0 : 1;
+            }
+        }
+
+        private void finish(String acceptedNumber)
+        {
+            if (acceptedNumber == null)
+            {
+                // Gave up; counts as the whole sequence
+                frames += MAX_FRAMES;
+            }
+        }
+
+        private double getMeanFrames()
+        {
+            return (double) frames / SEQUENCES;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.US, "%d/%d accepted, %d wrong, %.2f frames per sequence",
+                                 accepted, SEQUENCES, wrong, getMeanFrames());
+        }
+    }
+}
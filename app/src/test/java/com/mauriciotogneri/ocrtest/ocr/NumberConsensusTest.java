@@ -0,0 +1,161 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NumberConsensusTest
+{
+    private NumberConsensus consensus;
+
+    @Before
+    public void setUp()
+    {
+        consensus = new NumberConsensus(6, 5, 2, 0.6f);
+    }
+
+    @Test
+    public void acceptsOnceEnoughReadsAgree()
+    {
+        assertNull(consensus.offer("123456", 90));
+        assertEquals("123456", consensus.offer("123456", 90));
+    }
+
+    @Test
+    public void outvotesAConfidentMisread()
+    {
+        assertNull(consensus.offer("123956", 90));
+        assertNull(consensus.offer("123456", 80));
+        assertEquals("123456", consensus.offer("123456", 80));
+    }
+
+    @Test
+    public void alignsReadsOneDigitShortOrLong()
+    {
+        assertNull(consensus.offer("123456", 90));
+        assertNull(consensus.offer("12456", 90));
+        assertNull(consensus.offer("1233456", 90));
+        assertEquals("123456", consensus.offer("123456", 90));
+    }
+
+    @Test
+    public void offLengthReadsNeverCountAsAgreeingFrames()
+    {
+        assertNull(consensus.offer("123456", 90));
+        assertNull(consensus.offer("12345", 90));
+        assertNull(consensus.offer("1234567", 90));
+    }
+
+    @Test
+    public void ignoresOffLengthReadsWithNothingToAlignAgainst()
+    {
+        assertNull(consensus.offer("12345", 90));
+        assertNull(consensus.offer("123456", 90));
+        assertEquals("123456", consensus.offer("123456", 90));
+    }
+
+    @Test
+    public void ignoresTextThatIsNotDigits()
+    {
+        assertNull(consensus.offer("123456", 90));
+        assertNull(consensus.offer("12a456", 90));
+        assertNull(consensus.offer("1234", 90));
+        assertEquals("123456", consensus.offer("123456", 90));
+    }
+
+    @Test
+    public void readsInsideLongerTextAreUsedByRange()
+    {
+        assertNull(consensus.offer("No. 123456 x", 4, 10, 90));
+        assertEquals("123456", consensus.offer("123456", 90));
+    }
+
+    @Test
+    public void oldReadsLeaveTheWindow()
+    {
+        consensus.offer("111111", 90);
+
+        for (int i = 0; i < 4; i++)
+        {
+            consensus.offer("222222", 10);
+        }
+
+        // The confident read is evicted, so the agreement is no longer held back by it
+        assertEquals("333333", offerTwice("333333", 90));
+    }
+
+    @Test
+    public void resetForgetsAllVotes()
+    {
+        consensus.offer("123456", 90);
+        consensus.reset();
+
+        assertNull(consensus.offer("123456", 90));
+        assertEquals("123456", consensus.offer("123456", 90));
+    }
+
+    @Test
+    public void validatorDiscardsInvalidReads()
+    {
+        consensus.setValidator(new FixedValidator("9", NumberValidator.Result.UNVERIFIED), 2);
+
+        assertNull(consensus.offer("123456", 90));
+        assertNull(consensus.offer("123456", 90));
+        assertEquals(2, consensus.getRejectedCount());
+
+        assertNull(consensus.offer("923456", 90));
+        assertEquals("923456", consensus.offer("923456", 90));
+    }
+
+    @Test
+    public void verifiedNumbersNeedFewerFrames()
+    {
+        consensus.setValidator(new FixedValidator("9", NumberValidator.Result.VERIFIED), 1);
+
+        assertEquals("923456", consensus.offer("923456", 90));
+    }
+
+    @Test
+    public void verifiedFramesAreCappedByTheUsualRequirement()
+    {
+        consensus.setValidator(new FixedValidator("9", NumberValidator.Result.VERIFIED), 5);
+
+        assertNull(consensus.offer("923456", 90));
+        assertEquals("923456", consensus.offer("923456", 90));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMoreFramesThanTheWindowHolds()
+    {
+        new NumberConsensus(6, 2, 3, 0.6f);
+    }
+
+    private String offerTwice(String digits, int confidence)
+    {
+        consensus.offer(digits, confidence);
+        return consensus.offer(digits, confidence);
+    }
+
+    /**
+     * Accepts candidates starting with a prefix with the given result, and rejects the others.
+     */
+    private static final class FixedValidator implements NumberValidator
+    {
+        private final String prefix;
+        private final Result result;
+
+        private FixedValidator(String prefix, Result result)
+        {
+            this.prefix = prefix;
+            this.result = result;
+        }
+
+        @Override
+        public Result validate(CharSequence digits, int start, int end)
+        {
+            return digits.subSequence(start, end).toString().startsWith(prefix) ? result : Result.INVALID;
+        }
+    }
+}
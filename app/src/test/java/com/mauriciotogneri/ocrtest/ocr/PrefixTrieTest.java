@@ -0,0 +1,98 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrefixTrieTest
+{
+    @Test
+    public void matchesNumbersStartingWithAPrefix() throws IOException
+    {
+        PrefixTrie trie = load("89\n80756\n");
+
+        assertTrue(matches(trie, "8914"));
+        assertTrue(matches(trie, "80756002901234567890"));
+        assertFalse(matches(trie, "80757002901234567890"));
+        assertFalse(matches(trie, "1234"));
+    }
+
+    @Test
+    public void doesNotMatchNumbersShorterThanThePrefix() throws IOException
+    {
+        assertFalse(matches(load("80756"), "807"));
+    }
+
+    @Test
+    public void ignoresCommentsAndBlankLines() throws IOException
+    {
+        PrefixTrie trie = load("# Issuers\n\n  89  \n# 12\n");
+
+        assertTrue(matches(trie, "8901"));
+        assertFalse(matches(trie, "1234"));
+        assertEquals(3, trie.getNodeCount());
+    }
+
+    @Test
+    public void allowsEveryNumberWithoutPrefixes() throws IOException
+    {
+        PrefixTrie trie = load("# nothing yet\n");
+
+        assertTrue(matches(trie, "1234"));
+        assertEquals(NumberValidator.Result.UNVERIFIED, trie.validate("1234", 0, 4));
+    }
+
+    @Test
+    public void checksOnlyTheGivenRange() throws IOException
+    {
+        assertTrue(load("89").matches("No. 8901", 4, 8));
+    }
+
+    @Test
+    public void neverVerifiesOnlyRejects() throws IOException
+    {
+        PrefixTrie trie = load("89");
+
+        assertEquals(NumberValidator.Result.UNVERIFIED, trie.validate("8901", 0, 4));
+        assertEquals(NumberValidator.Result.INVALID, trie.validate("1234", 0, 4));
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() throws IOException
+    {
+        StringBuilder prefixes = new StringBuilder();
+
+        for (int i = 0; i < 100; i++)
+        {
+            prefixes.append(String.format(Locale.US, "%06d", i * 7919)).append('\n');
+        }
+
+        PrefixTrie trie = load(prefixes.toString());
+
+        assertTrue(trie.getNodeCount() > 64);
+        assertTrue(matches(trie, String.format(Locale.US, "%06d99", 99 * 7919)));
+        assertFalse(matches(trie, "999999"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsPrefixesThatAreNotDigits() throws IOException
+    {
+        load("89\n8a\n");
+    }
+
+    private static PrefixTrie load(String prefixes) throws IOException
+    {
+        return PrefixTrie.load(new ByteArrayInputStream(prefixes.getBytes("US-ASCII")));
+    }
+
+    private static boolean matches(PrefixTrie trie, String digits)
+    {
+        return trie.matches(digits, 0, digits.length());
+    }
+}
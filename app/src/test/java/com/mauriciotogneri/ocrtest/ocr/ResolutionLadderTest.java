@@ -0,0 +1,154 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResolutionLadderTest
+{
+    private static final float[] SCALES = {0.5f, 0.75f, 1f};
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 100;
+
+    private final ResolutionLadder ladder = new ResolutionLadder(SCALES, 0.5f, Integer.MAX_VALUE);
+
+    @Test
+    public void startsAtTheLowestLevel()
+    {
+        assertEquals(0, ladder.getStartLevel(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void climbsAfterLowLevelsKeepMissing()
+    {
+        runFrames(2, 20);
+
+        assertEquals(2, ladder.getStartLevel(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void comesBackDownWhenLowLevelsReadAgain()
+    {
+        runFrames(2, 20);
+
+        int frames = 0;
+
+        while (ladder.getStartLevel(WIDTH, HEIGHT) > 0)
+        {
+            runFrames(0, 1);
+            frames++;
+            assertTrue("Still not back down after " + frames + " frames", frames < 300);
+        }
+
+        // Only the frames exploring one level lower can show that it reads again
+        assertTrue(frames > 16);
+    }
+
+    @Test
+    public void framesThatNoLevelReadsDoNotMoveTheLadder()
+    {
+        for (int i = 0; i < 50; i++)
+        {
+            ladder.onFrameFinished(ladder.getStartLevel(WIDTH, HEIGHT), -1);
+        }
+
+        assertEquals(0, ladder.getStartLevel(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void skipsLevelsAboveThePixelLimit()
+    {
+        ResolutionLadder limited = new ResolutionLadder(SCALES, 0.5f, 300 * 75);
+
+        assertEquals(1, limited.getNextLevel(0, WIDTH, HEIGHT));
+        assertEquals(-1, limited.getNextLevel(1, WIDTH, HEIGHT));
+        assertEquals(-1, ladder.getNextLevel(2, WIDTH, HEIGHT));
+
+        // Even when only the top level reads, a crop starts at a level it fits at
+        for (int i = 0; i < 20; i++)
+        {
+            limited.onFrameFinished(0, 1);
+        }
+
+        assertTrue(limited.getStartLevel(WIDTH, HEIGHT) <= 1);
+    }
+
+    @Test
+    public void keepsFullScaleCropsAsTheyAre()
+    {
+        byte[] crop = new byte[WIDTH * HEIGHT];
+
+        assertSame(crop, ladder.scale(crop, WIDTH, HEIGHT, 2, null));
+    }
+
+    @Test
+    public void halvesWithABoxFilter()
+    {
+        byte[] crop = {
+                10, 20, 30, 40, 99,
+                30, 40, 50, (byte) 200, 99,
+                99, 99, 99, 99, 99
+        };
+
+        assertEquals(2, ladder.getScaledSize(5, 0));
+        assertEquals(1, ladder.getScaledSize(3, 0));
+        assertArrayEquals(new byte[]{25, 80}, ladder.scale(crop, 5, 3, 0, null));
+    }
+
+    @Test
+    public void resamplesOtherScalesBilinearly()
+    {
+        byte[] crop = new byte[WIDTH * HEIGHT];
+        Arrays.fill(crop, (byte) 77);
+
+        byte[] scaled = ladder.scale(crop, WIDTH, HEIGHT, 1, null);
+        byte[] expected = new byte[300 * 75];
+        Arrays.fill(expected, (byte) 77);
+
+        assertEquals(300, ladder.getScaledSize(WIDTH, 1));
+        assertEquals(75, ladder.getScaledSize(HEIGHT, 1));
+        assertArrayEquals(expected, scaled);
+    }
+
+    @Test
+    public void reusesALargeEnoughBuffer()
+    {
+        byte[] crop = new byte[WIDTH * HEIGHT];
+        byte[] buffer = new byte[WIDTH * HEIGHT / 4];
+
+        assertSame(buffer, ladder.scale(crop, WIDTH, HEIGHT, 0, buffer));
+        assertTrue(ladder.scale(crop, WIDTH, HEIGHT, 1, buffer) != buffer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAtLeastOneLevel()
+    {
+        new ResolutionLadder(new float[0], 0.5f, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Runs frames that only the given level, or a higher one, reads well.
+     */
+    private void runFrames(int neededLevel, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            int start = ladder.getStartLevel(WIDTH, HEIGHT);
+            int level = start;
+
+            while (level < neededLevel)
+            {
+                ladder.record(level, false, 0);
+                level = ladder.getNextLevel(level, WIDTH, HEIGHT);
+            }
+
+            ladder.record(level, true, 0);
+            ladder.onFrameFinished(start, level);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.mauriciotogneri.ocrtest.ocr;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValidatorChainTest
+{
+    private static final NumberValidator VERIFY = new FixedValidator(NumberValidator.Result.VERIFIED);
+    private static final NumberValidator ALLOW = new FixedValidator(NumberValidator.Result.UNVERIFIED);
+    private static final NumberValidator REJECT = new FixedValidator(NumberValidator.Result.INVALID);
+
+    @Test
+    public void emptyChainAllowsWithoutVerifying()
+    {
+        assertEquals(NumberValidator.Result.UNVERIFIED, validate(new ValidatorChain()));
+    }
+
+    @Test
+    public void verifiesWhenOneValidatorVerifies()
+    {
+        assertEquals(NumberValidator.Result.VERIFIED, validate(new ValidatorChain(ALLOW, VERIFY)));
+        assertEquals(NumberValidator.Result.VERIFIED, validate(new ValidatorChain(VERIFY, ALLOW)));
+    }
+
+    @Test
+    public void rejectsWhenAnyValidatorRejects()
+    {
+        assertEquals(NumberValidator.Result.INVALID, validate(new ValidatorChain(VERIFY, REJECT)));
+        assertEquals(NumberValidator.Result.INVALID, validate(new ValidatorChain(REJECT, VERIFY)));
+    }
+
+    @Test
+    public void combinesChecksumAndPrefixes() throws IOException
+    {
+        PrefixTrie prefixes = PrefixTrie.load(new ByteArrayInputStream("89".getBytes("US-ASCII")));
+        ValidatorChain chain = new ValidatorChain(new LuhnValidator(), prefixes);
+
+        assertEquals(NumberValidator.Result.VERIFIED, chain.validate("89014103211118510720", 0, 20));
+        assertEquals(NumberValidator.Result.INVALID, chain.validate("89014103211118510721", 0, 20));
+        assertEquals(NumberValidator.Result.INVALID, chain.validate("79927398713", 0, 11));
+    }
+
+    private static NumberValidator.Result validate(ValidatorChain chain)
+    {
+        return chain.validate("1234", 0, 4);
+    }
+
+    private static final class FixedValidator implements NumberValidator
+    {
+        private final Result result;
+
+        private FixedValidator(Result result)
+        {
+            this.result = result;
+        }
+
+        @Override
+        public Result validate(CharSequence digits, int start, int end)
+        {
+            return result;
+        }
+    }
+}